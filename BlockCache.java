@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * BlockCache.java
+ * A write-back cache of whole blocks in front of another {@code BlockDevice}.
+ * <p>
+ * The cache holds a fixed number of frames and chooses the frame to reuse
+ * with the CLOCK algorithm: a hand sweeps the frames, giving a recently
+ * used frame a second chance and taking the first one that was not used
+ * since the last sweep. Written blocks stay in their frame until they are
+ * evicted or the cache is checkpointed. Pinned blocks are held outside the
+ * frames and are never evicted, so the disk metadata is read from the
+ * backing device once. Blocks fetched ahead of a reader are marked as used,
+ * so they last a sweep of the hand before they are read.
+ * 
+ */
+public class BlockCache implements BlockDevice {
+	private BlockDevice device;
+	private int blockSize;
+	private Frame[] frames;
+	private HashMap<Integer, Frame> resident;
+	private int used;
+	private int hand;
+	private long hits, misses, evictions, writeBacks, prefetches, prefetchHits;
+	
+	/**
+	 * A cached copy of one block.
+	 */
+	private static class Frame {
+		private int block;
+		private byte[] data;
+		private boolean dirty;
+		private boolean referenced;
+		private boolean pinned;
+		private boolean prefetched;
+	}
+	
+	
+	/**
+	 * Constructs a {@code BlockCache} of the given number of frames in front
+	 * of the given device.
+	 * 
+	 * @param   device
+	 *          The {@code BlockDevice} holding the blocks.
+	 * @param   capacity
+	 *          An {@code int} for the number of blocks held in the cache, not
+	 *          counting pinned blocks.
+	 * @throws  IllegalArgumentException
+	 *          If the capacity is less than 1.
+	 */
+	public BlockCache(BlockDevice device, int capacity) {
+		if(capacity < 1) throw new IllegalArgumentException("A block cache needs at least one frame.");
+		
+		this.device = device;
+		this.blockSize = device.getBlockSize();
+		this.frames = new Frame[capacity];
+		this.resident = new HashMap<Integer, Frame>();
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return device.getNumBlocks();}
+	public int getBlockSize()				{return blockSize;}
+	public int getCapacity()				{return frames.length;}
+	public long getHits()					{return hits;}
+	public long getMisses()					{return misses;}
+	public long getEvictions()				{return evictions;}
+	public long getWriteBacks()				{return writeBacks;}
+	public long getPrefetches()				{return prefetches;}
+	public long getPrefetchHits()			{return prefetchHits;}
+	
+	/**
+	 * Returns {@code true} if the given block is held in the cache; otherwise
+	 * {@code false}. The block is not marked as used.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the block is cached; otherwise
+	 *          {@code false}.
+	 */
+	public boolean contains(int block) {
+		return resident.containsKey(block);
+	}
+	
+	/**
+	 * Reads the given blocks into the cache ahead of their use, in one batch
+	 * in the order of the blocks on the device. Blocks already cached are
+	 * left as they are, and the fetches do not count as hits or misses.
+	 * 
+	 * @param   blocks
+	 *          An {@code int[]} holding the block indexes on the disk.
+	 * @param   count
+	 *          An {@code int} for the number of blocks in the array to fetch.
+	 */
+	public void prefetch(int[] blocks, int count) {
+		int[] missing = new int[count];
+		int n = 0;
+		for(int i = 0; i < count; i++)
+			if(!resident.containsKey(blocks[i])) missing[n++] = blocks[i];
+		Arrays.sort(missing, 0, n);
+		
+		for(int i = 0; i < n; i++) {
+			// A block listed twice is only read once.
+			if(resident.containsKey(missing[i])) continue;
+			
+			Frame frame = victim();
+			frame.block = missing[i];
+			frame.referenced = true;
+			frame.prefetched = true;
+			device.readBlock(frame.block, frame.data);
+			resident.put(frame.block, frame);
+			prefetches++;
+		}
+	}
+	
+	/**
+	 * Keeps the given block in the cache until the device is closed.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void pin(int block) {
+		Frame frame = resident.get(block);
+		if(frame == null) {
+			frame = new Frame();
+			frame.block = block;
+			frame.data = device.readBlock(block);
+			resident.put(block, frame);
+		}
+		else if(!frame.pinned) {
+			// Hand the frame back to the sweep and keep the block apart.
+			Frame empty = new Frame();
+			empty.block = -1;
+			for(int i = 0; i < used; i++)
+				if(frames[i] == frame) frames[i] = empty;
+		}
+		frame.pinned = true;
+	}
+	
+	@Override
+	public byte read(int block, int location) {
+		return frame(block, true).data[location];
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		System.arraycopy(frame(block, true).data, 0, dst, 0, blockSize);
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		System.arraycopy(frame(block, true).data, location, dst, offset, length);
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		dst.put(frame(block, true).data, location, dst.remaining());
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		Frame frame = frame(block, true);
+		frame.data[location] = value;
+		frame.dirty = true;
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		// A whole block replaces the content, so a missing block is not read first.
+		Frame frame = frame(block, location != 0 || length < blockSize);
+		System.arraycopy(src, offset, frame.data, location, length);
+		frame.dirty = true;
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		Frame frame = frame(block, location != 0 || src.remaining() < blockSize);
+		src.get(frame.data, location, src.remaining());
+		frame.dirty = true;
+	}
+	
+	/**
+	 * Writes every changed block back to the device and makes the device
+	 * durable.
+	 */
+	@Override
+	public void checkpoint() throws IOException {
+		for(Frame frame : resident.values())
+			writeBack(frame);
+		device.checkpoint();
+	}
+	
+	/**
+	 * Writes every changed block back to the device and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		for(Frame frame : resident.values())
+			writeBack(frame);
+		device.close();
+	}
+	
+	/**
+	 * Returns the frame holding the given block, taking a frame for it on a
+	 * miss.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   load
+	 *          A {@code boolean} that is {@code true} if a missing block must be
+	 *          read from the device; {@code false} if it is about to be
+	 *          overwritten.
+	 * @return  The {@code Frame} holding the block.
+	 */
+	private Frame frame(int block, boolean load) {
+		Frame frame = resident.get(block);
+		if(frame != null) {
+			hits++;
+			if(frame.prefetched) prefetchHits++;
+			frame.prefetched = false;
+			frame.referenced = true;
+			return frame;
+		}
+		
+		misses++;
+		frame = victim();
+		frame.block = block;
+		frame.referenced = true;
+		if(load) device.readBlock(block, frame.data);
+		resident.put(block, frame);
+		return frame;
+	}
+	
+	/**
+	 * Returns a frame to reuse. An unused frame is taken first; otherwise
+	 * the CLOCK hand sweeps until it finds a frame that was not referenced
+	 * since it last passed, and that frame is written back and emptied.
+	 * 
+	 * @return  An empty {@code Frame}.
+	 */
+	private Frame victim() {
+		if(used < frames.length) {
+			Frame frame = new Frame();
+			frame.data = new byte[blockSize];
+			return frames[used++] = frame;
+		}
+		
+		while(true) {
+			Frame frame = frames[hand];
+			hand = (hand + 1) % frames.length;
+			
+			if(frame.data == null) {
+				// The slot was given up by a pinned block.
+				frame.data = new byte[blockSize];
+				return frame;
+			}
+			if(frame.referenced) {
+				frame.referenced = false;
+				continue;
+			}
+			
+			writeBack(frame);
+			resident.remove(frame.block);
+			frame.prefetched = false;
+			evictions++;
+			return frame;
+		}
+	}
+	
+	/**
+	 * Writes the frame to the device if it has changed.
+	 * 
+	 * @param   frame
+	 *          The {@code Frame} to write.
+	 */
+	private void writeBack(Frame frame) {
+		if(frame.dirty) {
+			device.writeBlock(frame.block, frame.data);
+			frame.dirty = false;
+			writeBacks++;
+		}
+	}
+	
+	/**
+	 * The BlockCache toString function override for the Object class.
+	 * <p>
+	 * Returns a string representation for the BlockCache object.
+	 * 
+	 * @return  Returns a {@code String} representation for the
+	 *          {@code BlockCache} object.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		long lookups = hits + misses;
+		return String.format("Capacity: %d blocks, Hits: %d, Misses: %d, Hit Rate: %.1f%%, Evictions: %d, Write-backs: %d, Read Ahead: %d, Read Ahead Hits: %d", frames.length, hits, misses, (lookups > 0 ? 100.0 * hits / lookups : 0.0), evictions, writeBacks, prefetches, prefetchHits);
+	}
+}
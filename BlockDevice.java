@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * BlockDevice.java
+ * The storage behind a disk: a fixed number of fixed-size blocks that are
+ * read and written in place.
+ * 
+ */
+public interface BlockDevice {
+	
+	/**
+	 * Returns the number of blocks on the device.
+	 * 
+	 * @return  An {@code int} value representing the number of blocks.
+	 */
+	public int getNumBlocks();
+	
+	/**
+	 * Returns the number of bytes in each block.
+	 * 
+	 * @return  An {@code int} value representing the block size.
+	 */
+	public int getBlockSize();
+	
+	/**
+	 * Reads a single byte from the device.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the {@code byte} to be read.
+	 * @param   location
+	 *          An {@code int} for the byte within the block to be read.
+	 * @return  A {@code byte} value found in the indicated block and location.
+	 */
+	public byte read(int block, int location);
+	
+	/**
+	 * Reads a complete block from the device and returns a copy of its
+	 * content.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block to be read.
+	 * @return  A {@code byte[]} of length {@code blockSize} holding the content of
+	 *          the indicated block.
+	 */
+	public default byte[] readBlock(int block) {
+		byte[] dst = new byte[getBlockSize()];
+		readBlock(block, dst);
+		return dst;
+	}
+	
+	/**
+	 * Reads a complete block from the device into the given array.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block to be read.
+	 * @param   dst
+	 *          A {@code byte[]} of at least {@code blockSize} bytes that receives
+	 *          the block content.
+	 */
+	public void readBlock(int block, byte[] dst);
+	
+	/**
+	 * Reads a range of bytes within a block into the given array.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be read.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be read.
+	 * @param   dst
+	 *          A {@code byte[]} that receives the bytes.
+	 * @param   offset
+	 *          An {@code int} for the first index in {@code dst} to be written.
+	 * @param   length
+	 *          An {@code int} for the number of bytes to be read.
+	 */
+	public void read(int block, int location, byte[] dst, int offset, int length);
+	
+	/**
+	 * Reads a range of bytes within a block into the given buffer. The
+	 * number of bytes read is the number of bytes remaining in the buffer.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be read.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be read.
+	 * @param   dst
+	 *          A {@code ByteBuffer} that receives the bytes.
+	 */
+	public void read(int block, int location, ByteBuffer dst);
+	
+	/**
+	 * Writes a single byte to the device.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the {@code byte} to be written.
+	 * @param   location
+	 *          An {@code int} for the byte within the block to be written.
+	 * @param   value
+	 *          A {@code byte} for the value to be written.
+	 */
+	public void write(int block, int location, byte value);
+	
+	/**
+	 * Writes a complete block to the device.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block to be written.
+	 * @param   src
+	 *          A {@code byte[]} of at least {@code blockSize} bytes holding the new
+	 *          block content.
+	 */
+	public default void writeBlock(int block, byte[] src) {
+		write(block, 0, src, 0, getBlockSize());
+	}
+	
+	/**
+	 * Writes a range of bytes within a block to the device.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be written.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be written.
+	 * @param   src
+	 *          A {@code byte[]} holding the bytes to be written.
+	 * @param   offset
+	 *          An {@code int} for the first index in {@code src} to be read.
+	 * @param   length
+	 *          An {@code int} for the number of bytes to be written.
+	 */
+	public void write(int block, int location, byte[] src, int offset, int length);
+	
+	/**
+	 * Writes a range of bytes within a block to the device. The number of
+	 * bytes written is the number of bytes remaining in the buffer.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be written.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be written.
+	 * @param   src
+	 *          A {@code ByteBuffer} holding the bytes to be written.
+	 */
+	public void write(int block, int location, ByteBuffer src);
+	
+	/**
+	 * Makes every write so far durable.
+	 * 
+	 * @throws  IOException
+	 *          If the device storage could not be written.
+	 */
+	public void checkpoint() throws IOException;
+	
+	/**
+	 * Writes back any unsaved changes and releases the device storage. The
+	 * device must not be used afterwards.
+	 * 
+	 * @throws  IOException
+	 *          If the device storage could not be written or closed.
+	 */
+	public default void close() throws IOException {
+		checkpoint();
+	}
+}
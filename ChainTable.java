@@ -0,0 +1,145 @@
+
+
+/**
+ * ChainTable.java
+ * An in-memory copy of the chain table of a chained disk: the next block
+ * of every block in a chain, kept in reserved blocks after the bitmap in
+ * the manner of the MS-DOS file allocation table.
+ * <p>
+ * With the links in the table, a chain is followed without reading any
+ * data block and every byte of a data block holds file content. Entry
+ * {@code n} is the {@code POINTER_SIZE} bytes at {@code n * POINTER_SIZE}
+ * of the table; 0 ends a chain. Only the table blocks that have changed
+ * are written back.
+ * 
+ */
+public class ChainTable {
+	private int[] next;
+	private int perBlock;
+	private boolean dirty;
+	private boolean[] dirtyBlocks;
+	
+	
+	/**
+	 * Constructs an empty {@code ChainTable} for a new disk with the given
+	 * number of blocks. The table blocks of a new disk are already zeros,
+	 * so there is nothing to write back.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 */
+	public ChainTable(int numBlocks, int blockSize) {
+		this.next = new int[numBlocks];
+		this.perBlock = blockSize / DiskInterface.POINTER_SIZE;
+		this.dirtyBlocks = new boolean[(numBlocks + perBlock - 1) / perBlock];
+	}
+	
+	/**
+	 * Constructs a {@code ChainTable} from the table blocks of the given
+	 * disk. The loaded table has no unwritten changes.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the table.
+	 * @param   tableStart
+	 *          An {@code int} for the first table block on the disk.
+	 * @return  The {@code ChainTable} read from the disk.
+	 */
+	public static ChainTable read(BlockDevice disk, int tableStart) {
+		ChainTable table = new ChainTable(disk.getNumBlocks(), disk.getBlockSize());
+		
+		byte[] data = new byte[disk.getBlockSize()];
+		for(int i = 0; i < table.dirtyBlocks.length; i++) {
+			disk.readBlock(tableStart + i, data);
+			for(int j = 0, block = i * table.perBlock; j < table.perBlock && block < table.next.length; j++, block++)
+				table.next[block] = DiskInterfaceUtils.getPointer(data, j * DiskInterface.POINTER_SIZE);
+		}
+		return table;
+	}
+	
+	/**
+	 * Reads the entry for one block from the table stored on the given
+	 * disk, such as a snapshot, without loading the table.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the table.
+	 * @param   tableStart
+	 *          An {@code int} for the first table block on the disk.
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  An {@code int} value representing the next block in the chain.
+	 */
+	public static int readNext(BlockDevice disk, int tableStart, int block) {
+		int perBlock = disk.getBlockSize() / DiskInterface.POINTER_SIZE;
+		byte[] link = new byte[DiskInterface.POINTER_SIZE];
+		disk.read(tableStart + block / perBlock, (block % perBlock) * DiskInterface.POINTER_SIZE, link, 0, DiskInterface.POINTER_SIZE);
+		return DiskInterfaceUtils.getPointer(link, 0);
+	}
+	
+	/**
+	 * Returns the block after the given block in its chain, or 0 if the
+	 * block ends its chain or is not in one.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  An {@code int} value representing the next block in the chain.
+	 */
+	public int getNext(int block) {
+		return next[block];
+	}
+	
+	/**
+	 * Sets the block after the given block in its chain.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   value
+	 *          An {@code int} value representing the next block, or 0 to end
+	 *          the chain.
+	 */
+	public void setNext(int block, int value) {
+		if(next[block] != value) {
+			next[block] = value;
+			dirty = true;
+			dirtyBlocks[block / perBlock] = true;
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the table has changed since it was last written
+	 * to the disk; otherwise {@code false}.
+	 * 
+	 * @return  Returns {@code true} if the table has unwritten changes;
+	 *          otherwise {@code false}.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+	
+	/**
+	 * Writes the table blocks that have changed since they were last
+	 * written to the given disk.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the table.
+	 * @param   tableStart
+	 *          An {@code int} for the first table block on the disk.
+	 */
+	public void flush(BlockDevice disk, int tableStart) {
+		if(!dirty) return;
+		
+		byte[] data = new byte[disk.getBlockSize()];
+		for(int i = 0; i < dirtyBlocks.length; i++) {
+			if(!dirtyBlocks[i]) continue;
+			
+			// Pack the entries covered by this table block.
+			java.util.Arrays.fill(data, (byte) 0);
+			for(int j = 0, block = i * perBlock; j < perBlock && block < next.length; j++, block++)
+				DiskInterfaceUtils.putPointer(data, j * DiskInterface.POINTER_SIZE, next[block]);
+			disk.writeBlock(tableStart + i, data);
+			dirtyBlocks[i] = false;
+		}
+		dirty = false;
+	}
+}
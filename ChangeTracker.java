@@ -0,0 +1,204 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * ChangeTracker.java
+ * A {@code BlockDevice} in front of the disk storage that records, for each
+ * block, the generation in which it was last written.
+ * <p>
+ * Generations are numbered from 1 and a block that has not been written
+ * is in generation 0. Closing a generation with {@link #mark()} makes a
+ * checkpoint; the blocks changed since checkpoint {@code n} are those
+ * whose generation is above {@code n}. For a disk kept in an image file
+ * the generations are saved in a sidecar file next to the image. A sidecar
+ * that was not closed cleanly is not trusted, and every block is then
+ * counted as changed in the current generation.
+ * 
+ */
+public class ChangeTracker implements BlockDevice {
+	private final static int MAGIC = 0x56444342;
+	private final static int HEADER_SIZE = 16;
+	private BlockDevice device;
+	private int[] generations;
+	private int generation;
+	private File sidecar;
+	
+	
+	/**
+	 * Constructs a {@code ChangeTracker} in front of the given device. The
+	 * generations are read from the sidecar file if it holds a clean
+	 * record for a disk of the same size.
+	 * 
+	 * @param   device
+	 *          The {@code BlockDevice} holding the disk.
+	 * @param   sidecar
+	 *          The {@code File} the generations are kept in, or {@code null} to
+	 *          keep them in memory only.
+	 * @param   format
+	 *          A {@code boolean} that is {@code true} if the disk is new, so no
+	 *          block holds data yet.
+	 * @throws  IOException
+	 *          If the sidecar file could not be read or written.
+	 */
+	public ChangeTracker(BlockDevice device, File sidecar, boolean format) throws IOException {
+		this.device = device;
+		this.sidecar = sidecar;
+		this.generations = new int[device.getNumBlocks()];
+		this.generation = 1;
+		
+		if(!format && !load()) Arrays.fill(generations, generation);
+		
+		// Until it is closed, the sidecar no longer matches the disk.
+		if(sidecar != null) save(false);
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return device.getNumBlocks();}
+	public int getBlockSize()				{return device.getBlockSize();}
+	public int getGeneration()				{return generation;}
+	
+	/**
+	 * Returns the generation in which the given block was last written.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  An {@code int} value representing the generation, or 0 if the
+	 *          block has not been written.
+	 */
+	public int getGeneration(int block) {
+		return generations[block];
+	}
+	
+	/**
+	 * Returns {@code true} if the given block was written after the given
+	 * checkpoint; otherwise {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   checkpoint
+	 *          An {@code int} value representing the checkpoint.
+	 * @return  Returns {@code true} if the block has changed since the
+	 *          checkpoint; otherwise {@code false}.
+	 */
+	public boolean isChanged(int block, int checkpoint) {
+		return generations[block] > checkpoint;
+	}
+	
+	/**
+	 * Closes the current generation and returns its number as a checkpoint.
+	 * 
+	 * @return  An {@code int} value representing the checkpoint.
+	 */
+	public int mark() {
+		return generation++;
+	}
+	
+	@Override
+	public byte read(int block, int location) {
+		return device.read(block, location);
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		device.readBlock(block, dst);
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		device.read(block, location, dst, offset, length);
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		device.read(block, location, dst);
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		generations[block] = generation;
+		device.write(block, location, value);
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		generations[block] = generation;
+		device.write(block, location, src, offset, length);
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		generations[block] = generation;
+		device.write(block, location, src);
+	}
+	
+	@Override
+	public void checkpoint() throws IOException {
+		device.checkpoint();
+	}
+	
+	/**
+	 * Closes the device and saves the generations as a clean record.
+	 */
+	@Override
+	public void close() throws IOException {
+		device.close();
+		if(sidecar != null) save(true);
+	}
+	
+	/**
+	 * Reads the generations from the sidecar file.
+	 * 
+	 * @return  Returns {@code true} if the sidecar held a clean record for this
+	 *          disk; otherwise {@code false}.
+	 * @throws  IOException
+	 *          If the sidecar file could not be read.
+	 */
+	private boolean load() throws IOException {
+		if(sidecar == null || sidecar.length() != HEADER_SIZE + 4L * generations.length) return false;
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			if(in.readInt() != MAGIC || in.readInt() != 1 || in.readInt() != generations.length) return false;
+			generation = in.readInt();
+			for(int i = 0; i < generations.length; i++)
+				generations[i] = in.readInt();
+			return true;
+		}
+	}
+	
+	/**
+	 * Writes the generations to the sidecar file, or only marks it as open.
+	 * 
+	 * @param   clean
+	 *          A {@code boolean} that is {@code true} to write the generations as
+	 *          a clean record; {@code false} to mark the record as not matching
+	 *          the disk.
+	 * @throws  IOException
+	 *          If the sidecar file could not be written.
+	 */
+	private void save(boolean clean) throws IOException {
+		if(!clean) {
+			if(sidecar.exists())
+				try(RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {file.seek(4); file.writeInt(0); file.getFD().sync();}
+			return;
+		}
+		
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(1);
+			out.writeInt(generations.length);
+			out.writeInt(generation);
+			for(int value : generations)
+				out.writeInt(value);
+		}
+	}
+}
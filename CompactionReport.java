@@ -0,0 +1,60 @@
+
+
+/**
+ * CompactionReport.java
+ * The result of a single compaction pass over a contiguous disk.
+ * 
+ */
+public class CompactionReport {
+	private int blocksMoved, filesMoved;
+	private int largestExtentBefore, largestExtentAfter;
+	private boolean complete;
+	
+	/**
+	 * This is the constructor for a {@code CompactionReport} object.
+	 * 
+	 * @param   blocksMoved
+	 *          An {@code int} value representing the number of blocks that were
+	 *          moved.
+	 * @param   filesMoved
+	 *          An {@code int} value representing the number of files that were
+	 *          moved.
+	 * @param   largestExtentBefore
+	 *          An {@code int} value representing the length of the largest free
+	 *          extent before the pass.
+	 * @param   largestExtentAfter
+	 *          An {@code int} value representing the length of the largest free
+	 *          extent after the pass.
+	 * @param   complete
+	 *          A {@code boolean} value that is {@code true} if every file is packed
+	 *          against the start of the disk.
+	 */
+	public CompactionReport(int blocksMoved, int filesMoved, int largestExtentBefore, int largestExtentAfter, boolean complete) {
+		this.blocksMoved = blocksMoved;
+		this.filesMoved = filesMoved;
+		this.largestExtentBefore = largestExtentBefore;
+		this.largestExtentAfter = largestExtentAfter;
+		this.complete = complete;
+	}
+	
+	// Getter functions.
+	public int getBlocksMoved()				{return blocksMoved;}
+	public int getFilesMoved()				{return filesMoved;}
+	public int getLargestExtentBefore()		{return largestExtentBefore;}
+	public int getLargestExtentAfter()		{return largestExtentAfter;}
+	public boolean isComplete()				{return complete;}
+	
+	/**
+	 * The CompactionReport toString function override for the Object class.
+	 * <p>
+	 * Returns a string representation for the CompactionReport object.
+	 * 
+	 * @return  Returns a {@code String} representation for the
+	 *          {@code CompactionReport} object.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return String.format("Blocks Moved: %d, Files Moved: %d, Largest Free Extent: %d -> %d%s", blocksMoved, filesMoved, largestExtentBefore, largestExtentAfter, (complete ? "" : " (more to do)"));
+	}
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * CopyOnWriteDisk.java
+ * A {@code BlockDevice} in front of the disk storage that can take
+ * point-in-time, read-only snapshots of the volume.
+ * <p>
+ * Taking a snapshot only records it. The first time the live volume
+ * overwrites a block after the newest snapshot was taken, the old content
+ * is copied into that snapshot. An older snapshot reads a block from the
+ * first copy it finds in itself or a newer snapshot, and from the live
+ * volume if no snapshot holds one, so each version of a block is kept
+ * once however many snapshots share it.
+ * <p>
+ * The methods are synchronized, so a snapshot may be read on another
+ * thread while the volume is being written.
+ * 
+ */
+public class CopyOnWriteDisk implements BlockDevice {
+	private BlockDevice device;
+	private int blockSize;
+	private ArrayList<DiskSnapshot> snapshots;
+	private int nextId;
+	
+	
+	/**
+	 * Constructs a {@code CopyOnWriteDisk} with no snapshots in front of the
+	 * given device.
+	 * 
+	 * @param   device
+	 *          The {@code BlockDevice} holding the live volume.
+	 */
+	public CopyOnWriteDisk(BlockDevice device) {
+		this.device = device;
+		this.blockSize = device.getBlockSize();
+		this.snapshots = new ArrayList<DiskSnapshot>();
+		this.nextId = 1;
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return device.getNumBlocks();}
+	public int getBlockSize()				{return blockSize;}
+	public BlockDevice getDevice()			{return device;}
+	
+	/**
+	 * Takes a snapshot of the volume as it is on the device now. Changes
+	 * still held above this device, such as in a cache or journal, are not
+	 * part of it, so the disk should be checkpointed first.
+	 * 
+	 * @return  The new {@code DiskSnapshot}.
+	 */
+	public synchronized DiskSnapshot snapshot() {
+		DiskSnapshot snapshot = new DiskSnapshot(this, nextId++);
+		snapshots.add(snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the snapshots that have not been released, oldest first.
+	 * 
+	 * @return  A {@code List<DiskSnapshot>} of the snapshots.
+	 */
+	public synchronized List<DiskSnapshot> getSnapshots() {
+		return Collections.unmodifiableList(new ArrayList<DiskSnapshot>(snapshots));
+	}
+	
+	/**
+	 * Releases a snapshot. The blocks it preserved that an older snapshot
+	 * still needs are handed to that snapshot; the rest are dropped.
+	 * 
+	 * @param   snapshot
+	 *          The {@code DiskSnapshot} to release.
+	 */
+	protected synchronized void release(DiskSnapshot snapshot) {
+		int i = snapshots.indexOf(snapshot);
+		if(i < 0) return;
+		
+		snapshots.remove(i);
+		if(i > 0)
+			for(Integer block : snapshot.getPreserved().keySet())
+				snapshots.get(i - 1).getPreserved().putIfAbsent(block, snapshot.getPreserved().get(block));
+		snapshot.getPreserved().clear();
+	}
+	
+	/**
+	 * Returns the content of a block as the given snapshot sees it.
+	 * 
+	 * @param   snapshot
+	 *          The {@code DiskSnapshot} being read.
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  A {@code byte[]} holding the preserved block, or {@code null} if
+	 *          the block is unchanged on the live volume.
+	 * @throws  IllegalStateException
+	 *          If the snapshot has been released.
+	 */
+	protected synchronized byte[] find(DiskSnapshot snapshot, int block) {
+		int i = snapshots.indexOf(snapshot);
+		if(i < 0) throw new IllegalStateException("Snapshot " + snapshot.getId() + " has been released.");
+		
+		for(; i < snapshots.size(); i++) {
+			byte[] image = snapshots.get(i).getPreserved().get(block);
+			if(image != null) return image;
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads a range of bytes from a block as the given snapshot sees it.
+	 * 
+	 * @param   snapshot
+	 *          The {@code DiskSnapshot} being read.
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be read.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be read.
+	 * @param   dst
+	 *          A {@code byte[]} that receives the bytes.
+	 * @param   offset
+	 *          An {@code int} for the first index in {@code dst} to be written.
+	 * @param   length
+	 *          An {@code int} for the number of bytes to be read.
+	 */
+	protected synchronized void read(DiskSnapshot snapshot, int block, int location, byte[] dst, int offset, int length) {
+		byte[] image = find(snapshot, block);
+		if(image != null) System.arraycopy(image, location, dst, offset, length);
+		else device.read(block, location, dst, offset, length);
+	}
+	
+	@Override
+	public synchronized byte read(int block, int location) {
+		return device.read(block, location);
+	}
+	
+	@Override
+	public synchronized void readBlock(int block, byte[] dst) {
+		device.readBlock(block, dst);
+	}
+	
+	@Override
+	public synchronized void read(int block, int location, byte[] dst, int offset, int length) {
+		device.read(block, location, dst, offset, length);
+	}
+	
+	@Override
+	public synchronized void read(int block, int location, ByteBuffer dst) {
+		device.read(block, location, dst);
+	}
+	
+	@Override
+	public synchronized void write(int block, int location, byte value) {
+		preserve(block);
+		device.write(block, location, value);
+	}
+	
+	@Override
+	public synchronized void write(int block, int location, byte[] src, int offset, int length) {
+		preserve(block);
+		device.write(block, location, src, offset, length);
+	}
+	
+	@Override
+	public synchronized void write(int block, int location, ByteBuffer src) {
+		preserve(block);
+		device.write(block, location, src);
+	}
+	
+	@Override
+	public synchronized void checkpoint() throws IOException {
+		device.checkpoint();
+	}
+	
+	/**
+	 * Releases every snapshot and closes the device.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		snapshots.clear();
+		device.close();
+	}
+	
+	/**
+	 * Copies the block into the newest snapshot before its first change
+	 * since that snapshot was taken.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	private void preserve(int block) {
+		if(snapshots.isEmpty()) return;
+		
+		DiskSnapshot newest = snapshots.get(snapshots.size() - 1);
+		if(!newest.getPreserved().containsKey(block))
+			newest.getPreserved().put(block, device.readBlock(block));
+	}
+}
@@ -0,0 +1,42 @@
+
+
+/**
+ * DeviceType.java
+ * An enumeration for the storage that holds the disk blocks.
+ * 
+ */
+public enum DeviceType {
+	
+	/**
+	 * Key used to keep each block in its own array on the heap.
+	 */
+	HEAP,
+	
+	/**
+	 * Key used to keep each block in its own array on the heap, made on the
+	 * first write to the block.
+	 */
+	LAZY,
+	
+	/**
+	 * Key used to keep every block in one off-heap direct buffer.
+	 */
+	DIRECT,
+	
+	/**
+	 * Key used to read and write the disk image file at positions through
+	 * a file channel.
+	 */
+	CHANNEL,
+	
+	/**
+	 * Key used to map the disk image file into memory.
+	 */
+	MAPPED,
+	
+	/**
+	 * Key used to keep only the blocks in use in the disk image file and to
+	 * read them as they are needed.
+	 */
+	SPARSE;
+}
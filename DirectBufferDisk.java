@@ -0,0 +1,95 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * DirectBufferDisk.java
+ * A {@code BlockDevice} that keeps every block in one direct buffer outside
+ * the Java heap, so a large disk adds nothing to garbage collection.
+ * 
+ */
+public class DirectBufferDisk implements BlockDevice {
+	private int numBlocks;
+	private int blockSize;
+	private ByteBuffer disk;
+	
+	
+	/**
+	 * Constructs a {@code DirectBufferDisk} of zeroed blocks.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @throws  IllegalArgumentException
+	 *          If the disk is larger than a single buffer can hold.
+	 */
+	public DirectBufferDisk(int numBlocks, int blockSize) {
+		long size = (long)numBlocks * blockSize;
+		if(size > Integer.MAX_VALUE) throw new IllegalArgumentException("A direct buffer disk is limited to 2 GB.");
+		
+		this.numBlocks = numBlocks;
+		this.blockSize = blockSize;
+		this.disk = ByteBuffer.allocateDirect((int)size);
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return numBlocks;}
+	public int getBlockSize()				{return blockSize;}
+	
+	@Override
+	public byte read(int block, int location) {
+		return disk.get(offset(block, location));
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		disk.get(offset(block, 0), dst, 0, blockSize);
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		disk.get(offset(block, location), dst, offset, length);
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		dst.put(disk.slice(offset(block, location), dst.remaining()));
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		disk.put(offset(block, location), value);
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		disk.put(offset(block, location), src, offset, length);
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		int length = src.remaining();
+		disk.put(offset(block, location), src, src.position(), length);
+		src.position(src.position() + length);
+	}
+	
+	/**
+	 * A disk held in memory has nothing to write back.
+	 */
+	@Override
+	public void checkpoint() {
+	}
+	
+	/**
+	 * Returns the position of a byte of the given block within the buffer.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   location
+	 *          An {@code int} value representing the byte within the block.
+	 * @return  An {@code int} value representing the position in the buffer.
+	 */
+	private int offset(int block, int location) {
+		return block * blockSize + location;
+	}
+}
@@ -0,0 +1,552 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+
+/**
+ * DirectoryTree.java
+ * The disk directory, stored as a B-tree of file records keyed by name.
+ * <p>
+ * Every node fills one block. The root always lives in the block the
+ * superblock reserves for it; the other nodes are allocated from the free
+ * space like any other block. A block of zeros reads as an empty
+ * leaf, which makes a freshly formatted disk an empty directory.
+ * <p>
+ * Node layout: a leaf flag byte (0 for a leaf), a two byte key count, the
+ * entries, and then the child pointers of an internal node. Each entry
+ * holds a name length byte, the name padded to {@code MAX_NAME_LENGTH}
+ * bytes, the start (or index) block and length pointers, and the size of
+ * the file in bytes.
+ * 
+ */
+public class DirectoryTree {
+	protected final static int MAX_NAME_LENGTH = 32;
+	private final static int HEADER_SIZE = 3;
+	private final static int FILE_SIZE_BYTES = 8;
+	private BlockDevice disk;
+	private int rootBlock;
+	private int entrySize;
+	private int childrenOffset;
+	private int minDegree;
+	private int maxKeys;
+	
+	
+	/**
+	 * A directory node that has been read into memory.
+	 */
+	private class Node {
+		private int block;
+		private boolean leaf;
+		private int count;
+		private FileRecord[] records = new FileRecord[maxKeys];
+		private int[] children = new int[maxKeys + 1];
+		
+		private Node(int block, boolean leaf) {
+			this.block = block;
+			this.leaf = leaf;
+		}
+	}
+	
+	/**
+	 * Constructs a {@code DirectoryTree} over the directory held on the
+	 * given disk.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the directory nodes.
+	 * @param   rootBlock
+	 *          An {@code int} value representing the block that holds the root.
+	 */
+	public DirectoryTree(BlockDevice disk, int rootBlock) {
+		this.disk = disk;
+		this.rootBlock = rootBlock;
+		this.entrySize = 1 + MAX_NAME_LENGTH + 2 * DiskInterface.POINTER_SIZE + FILE_SIZE_BYTES;
+		
+		// Fit as many entries and child pointers as the block allows, keeping the key count odd.
+		int fit = (DiskInterface.BLOCK_SIZE - HEADER_SIZE - DiskInterface.POINTER_SIZE) / (entrySize + DiskInterface.POINTER_SIZE);
+		this.minDegree = (fit + 1) / 2;
+		this.maxKeys = 2 * minDegree - 1;
+		this.childrenOffset = HEADER_SIZE + maxKeys * entrySize;
+	}
+	
+	/**
+	 * Returns the record for the given file name; otherwise {@code null}.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @return  The {@code FileRecord} stored under the name; otherwise
+	 *          {@code null}.
+	 */
+	public FileRecord search(String fileName) {
+		String key = toKey(fileName);
+		Node node = load(rootBlock);
+		while(true) {
+			int i = find(node, key);
+			if(i < node.count && toKey(node.records[i].getFileName()).equals(key)) return node.records[i];
+			if(node.leaf) return null;
+			node = load(node.children[i]);
+		}
+	}
+	
+	/**
+	 * Adds the given record to the directory. The name must not already be
+	 * in the directory, and up to {@link #getHeight()} + 1 free blocks may
+	 * be taken for new nodes.
+	 * 
+	 * @param   fileRecord
+	 *          The {@code FileRecord} to add.
+	 */
+	public void insert(FileRecord fileRecord) {
+		Node root = load(rootBlock);
+		
+		// Grow the tree by moving a full root down into a new block.
+		if(root.count == maxKeys) {
+			Node child = copy(root, DiskInterfaceUtils.allocateMetadataBlock());
+			save(child);
+			root = new Node(rootBlock, false);
+			root.children[0] = child.block;
+			splitChild(root, 0, child);
+		}
+		
+		insertNonFull(root, fileRecord);
+	}
+	
+	/**
+	 * Replaces the record stored under the same name as the given record.
+	 * 
+	 * @param   fileRecord
+	 *          The new {@code FileRecord}.
+	 * @return  Returns {@code true} if a record was replaced; otherwise
+	 *          {@code false}.
+	 */
+	public boolean update(FileRecord fileRecord) {
+		String key = toKey(fileRecord.getFileName());
+		Node node = load(rootBlock);
+		while(true) {
+			int i = find(node, key);
+			if(i < node.count && toKey(node.records[i].getFileName()).equals(key)) {
+				node.records[i] = fileRecord;
+				save(node);
+				return true;
+			}
+			if(node.leaf) return false;
+			node = load(node.children[i]);
+		}
+	}
+	
+	/**
+	 * Removes the record for the given file name from the directory. Nodes
+	 * that are emptied by merging are returned to the free space.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @return  Returns {@code true} if a record was removed; otherwise
+	 *          {@code false}.
+	 */
+	public boolean delete(String fileName) {
+		boolean deleted = delete(load(rootBlock), toKey(fileName));
+		
+		// Shrink the tree when the root has lost its last key.
+		Node root = load(rootBlock);
+		if(root.count == 0 && !root.leaf) {
+			int child = root.children[0];
+			save(copy(load(child), rootBlock));
+			DiskInterfaceUtils.freeMetadataBlock(child);
+		}
+		
+		return deleted;
+	}
+	
+	/**
+	 * Returns the records in name order.
+	 * 
+	 * @return  An {@code ArrayList<FileRecord>} of every record in the
+	 *          directory.
+	 */
+	public ArrayList<FileRecord> list() {
+		return list(null, null);
+	}
+	
+	/**
+	 * Returns the records whose names fall in the given range, in name
+	 * order. Only the nodes that overlap the range are read.
+	 * 
+	 * @param   from
+	 *          A {@code String} value representing the lowest name to list, or
+	 *          {@code null} to start at the first name.
+	 * @param   to
+	 *          A {@code String} value representing the name to stop before, or
+	 *          {@code null} to continue to the last name.
+	 * @return  An {@code ArrayList<FileRecord>} of the records in the range.
+	 */
+	public ArrayList<FileRecord> list(String from, String to) {
+		ArrayList<FileRecord> records = new ArrayList<FileRecord>();
+		list(load(rootBlock), (from == null ? null : toKey(from)), (to == null ? null : toKey(to)), records);
+		return records;
+	}
+	
+	/**
+	 * Returns the blocks that hold directory nodes, including the root.
+	 * 
+	 * @return  An {@code ArrayList<Integer>} of the node blocks.
+	 */
+	public ArrayList<Integer> getNodeBlocks() {
+		ArrayList<Integer> blocks = new ArrayList<Integer>();
+		blocks.add(rootBlock);
+		for(int i = 0; i < blocks.size(); i++) {
+			Node node = load(blocks.get(i));
+			if(!node.leaf)
+				for(int j = 0; j <= node.count; j++)
+					blocks.add(node.children[j]);
+		}
+		return blocks;
+	}
+	
+	/**
+	 * Returns the number of node levels below the root.
+	 * 
+	 * @return  An {@code int} value representing the height of the tree.
+	 */
+	public int getHeight() {
+		int height = 0;
+		for(Node node = load(rootBlock); !node.leaf; node = load(node.children[0]))
+			height++;
+		return height;
+	}
+	
+	/**
+	 * Inserts a record below a node that is known not to be full, splitting
+	 * full children on the way down.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to insert below.
+	 * @param   fileRecord
+	 *          The {@code FileRecord} to add.
+	 */
+	private void insertNonFull(Node node, FileRecord fileRecord) {
+		String key = toKey(fileRecord.getFileName());
+		while(true) {
+			int i = find(node, key);
+			if(node.leaf) {
+				System.arraycopy(node.records, i, node.records, i + 1, node.count - i);
+				node.records[i] = fileRecord;
+				node.count++;
+				save(node);
+				return;
+			}
+			
+			Node child = load(node.children[i]);
+			if(child.count == maxKeys) {
+				splitChild(node, i, child);
+				if(key.compareTo(toKey(node.records[i].getFileName())) > 0) child = load(node.children[i + 1]);
+			}
+			node = child;
+		}
+	}
+	
+	/**
+	 * Splits the full child at the given position around its middle key,
+	 * which moves up into the parent.
+	 * 
+	 * @param   parent
+	 *          The {@code Node} that holds the child.
+	 * @param   i
+	 *          An {@code int} value representing the position of the child.
+	 * @param   child
+	 *          The full child {@code Node}.
+	 */
+	private void splitChild(Node parent, int i, Node child) {
+		Node sibling = new Node(DiskInterfaceUtils.allocateMetadataBlock(), child.leaf);
+		sibling.count = minDegree - 1;
+		System.arraycopy(child.records, minDegree, sibling.records, 0, minDegree - 1);
+		if(!child.leaf) System.arraycopy(child.children, minDegree, sibling.children, 0, minDegree);
+		child.count = minDegree - 1;
+		
+		System.arraycopy(parent.records, i, parent.records, i + 1, parent.count - i);
+		System.arraycopy(parent.children, i + 1, parent.children, i + 2, parent.count - i);
+		parent.records[i] = child.records[minDegree - 1];
+		parent.children[i + 1] = sibling.block;
+		parent.count++;
+		
+		save(child);
+		save(sibling);
+		save(parent);
+	}
+	
+	/**
+	 * Removes a key from below the given node. Every node visited on the way
+	 * down holds at least {@code minDegree} keys, so a key can always be
+	 * taken from it.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to remove the key from.
+	 * @param   key
+	 *          A {@code String} value representing the normalized file name.
+	 * @return  Returns {@code true} if the key was removed; otherwise
+	 *          {@code false}.
+	 */
+	private boolean delete(Node node, String key) {
+		while(true) {
+			int i = find(node, key);
+			boolean found = i < node.count && toKey(node.records[i].getFileName()).equals(key);
+			
+			if(found && node.leaf) {
+				System.arraycopy(node.records, i + 1, node.records, i, node.count - i - 1);
+				node.count--;
+				save(node);
+				return true;
+			}
+			if(node.leaf) return false;
+			
+			if(found) {
+				Node left = load(node.children[i]);
+				Node right = load(node.children[i + 1]);
+				
+				// Replace the key with its predecessor or successor, or merge the children around it.
+				if(left.count >= minDegree) {
+					FileRecord predecessor = last(left);
+					node.records[i] = predecessor;
+					save(node);
+					node = left;
+					key = toKey(predecessor.getFileName());
+				}
+				else if(right.count >= minDegree) {
+					FileRecord successor = first(right);
+					node.records[i] = successor;
+					save(node);
+					node = right;
+					key = toKey(successor.getFileName());
+				}
+				else {
+					merge(node, i, left, right);
+					node = left;
+				}
+				continue;
+			}
+			
+			// Make sure the child to descend into can lose a key.
+			Node child = load(node.children[i]);
+			if(child.count < minDegree) {
+				Node left = (i > 0 ? load(node.children[i - 1]) : null);
+				Node right = (i < node.count ? load(node.children[i + 1]) : null);
+				
+				if(left != null && left.count >= minDegree) {
+					// Rotate a key in from the left sibling.
+					System.arraycopy(child.records, 0, child.records, 1, child.count);
+					System.arraycopy(child.children, 0, child.children, 1, child.count + 1);
+					child.records[0] = node.records[i - 1];
+					child.children[0] = left.children[left.count];
+					child.count++;
+					node.records[i - 1] = left.records[--left.count];
+					save(left);
+					save(child);
+					save(node);
+				}
+				else if(right != null && right.count >= minDegree) {
+					// Rotate a key in from the right sibling.
+					child.records[child.count] = node.records[i];
+					child.children[child.count + 1] = right.children[0];
+					child.count++;
+					node.records[i] = right.records[0];
+					System.arraycopy(right.records, 1, right.records, 0, right.count - 1);
+					System.arraycopy(right.children, 1, right.children, 0, right.count);
+					right.count--;
+					save(right);
+					save(child);
+					save(node);
+				}
+				else if(right != null) merge(node, i, child, right);
+				else {
+					merge(node, i - 1, left, child);
+					child = left;
+				}
+			}
+			node = child;
+		}
+	}
+	
+	/**
+	 * Merges the right child into the left child around the parent key
+	 * between them, and frees the right child's block.
+	 * 
+	 * @param   parent
+	 *          The {@code Node} that holds both children.
+	 * @param   i
+	 *          An {@code int} value representing the position of the key between
+	 *          the children.
+	 * @param   left
+	 *          The left child {@code Node}.
+	 * @param   right
+	 *          The right child {@code Node}.
+	 */
+	private void merge(Node parent, int i, Node left, Node right) {
+		left.records[left.count] = parent.records[i];
+		System.arraycopy(right.records, 0, left.records, left.count + 1, right.count);
+		if(!left.leaf) System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+		left.count += right.count + 1;
+		
+		System.arraycopy(parent.records, i + 1, parent.records, i, parent.count - i - 1);
+		System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.count - i - 1);
+		parent.count--;
+		
+		save(left);
+		save(parent);
+		DiskInterfaceUtils.freeMetadataBlock(right.block);
+	}
+	
+	/**
+	 * Adds the records under the given node that fall in the range to the
+	 * list, in order.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to walk.
+	 * @param   from
+	 *          A {@code String} value for the lowest key, or {@code null}.
+	 * @param   to
+	 *          A {@code String} value for the key to stop before, or
+	 *          {@code null}.
+	 * @param   records
+	 *          The {@code ArrayList<FileRecord>} to add the records to.
+	 */
+	private void list(Node node, String from, String to, ArrayList<FileRecord> records) {
+		for(int i = 0; i <= node.count; i++) {
+			String key = (i < node.count ? toKey(node.records[i].getFileName()) : null);
+			
+			// Only walk the children whose key range overlaps the requested range.
+			if(!node.leaf && (from == null || key == null || key.compareTo(from) >= 0))
+				list(load(node.children[i]), from, to, records);
+			if(key == null) break;
+			if(to != null && key.compareTo(to) >= 0) break;
+			if(from == null || key.compareTo(from) >= 0) records.add(node.records[i]);
+		}
+	}
+	
+	/**
+	 * Returns the position of the first key in the node that is not less
+	 * than the given key.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to search.
+	 * @param   key
+	 *          A {@code String} value representing the normalized file name.
+	 * @return  An {@code int} value representing the position of the key.
+	 */
+	private int find(Node node, String key) {
+		int low = 0, high = node.count;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(toKey(node.records[middle].getFileName()).compareTo(key) < 0) low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+	
+	/**
+	 * Returns the last record under the given node.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to search.
+	 * @return  The {@code FileRecord} with the greatest name under the node.
+	 */
+	private FileRecord last(Node node) {
+		while(!node.leaf) node = load(node.children[node.count]);
+		return node.records[node.count - 1];
+	}
+	
+	/**
+	 * Returns the first record under the given node.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to search.
+	 * @return  The {@code FileRecord} with the least name under the node.
+	 */
+	private FileRecord first(Node node) {
+		while(!node.leaf) node = load(node.children[0]);
+		return node.records[0];
+	}
+	
+	/**
+	 * Returns a copy of the given node that will be saved to another block.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to copy.
+	 * @param   block
+	 *          An {@code int} value representing the block for the copy.
+	 * @return  The copied {@code Node}.
+	 */
+	private Node copy(Node node, int block) {
+		Node copy = new Node(block, node.leaf);
+		copy.count = node.count;
+		System.arraycopy(node.records, 0, copy.records, 0, node.count);
+		System.arraycopy(node.children, 0, copy.children, 0, node.count + 1);
+		return copy;
+	}
+	
+	/**
+	 * Reads the node stored in the given block.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  The {@code Node} read from the block.
+	 */
+	private Node load(int block) {
+		byte[] data = disk.readBlock(block);
+		Node node = new Node(block, data[0] == 0);
+		node.count = ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+		
+		for(int i = 0; i < node.count; i++) {
+			int offset = HEADER_SIZE + i * entrySize;
+			String name = new String(data, offset + 1, data[offset] & 0xFF, StandardCharsets.UTF_8);
+			int start = DiskInterfaceUtils.getPointer(data, offset + 1 + MAX_NAME_LENGTH);
+			int length = DiskInterfaceUtils.getPointer(data, offset + 1 + MAX_NAME_LENGTH + DiskInterface.POINTER_SIZE);
+			long size = ByteBuffer.wrap(data).getLong(offset + 1 + MAX_NAME_LENGTH + 2 * DiskInterface.POINTER_SIZE);
+			node.records[i] = new FileRecord(name, start, length, size);
+		}
+		
+		if(!node.leaf)
+			for(int i = 0; i <= node.count; i++)
+				node.children[i] = DiskInterfaceUtils.getPointer(data, childrenOffset + i * DiskInterface.POINTER_SIZE);
+		
+		return node;
+	}
+	
+	/**
+	 * Writes the given node to its block.
+	 * 
+	 * @param   node
+	 *          The {@code Node} to write.
+	 */
+	private void save(Node node) {
+		byte[] data = new byte[DiskInterface.BLOCK_SIZE];
+		data[0] = (byte)(node.leaf ? 0 : 1);
+		data[1] = (byte)(node.count >>> 8);
+		data[2] = (byte)node.count;
+		
+		for(int i = 0; i < node.count; i++) {
+			int offset = HEADER_SIZE + i * entrySize;
+			byte[] name = node.records[i].getFileName().getBytes(StandardCharsets.UTF_8);
+			data[offset] = (byte)name.length;
+			System.arraycopy(name, 0, data, offset + 1, name.length);
+			DiskInterfaceUtils.putPointer(data, offset + 1 + MAX_NAME_LENGTH, node.records[i].getStartBlock());
+			DiskInterfaceUtils.putPointer(data, offset + 1 + MAX_NAME_LENGTH + DiskInterface.POINTER_SIZE, node.records[i].getLength());
+			ByteBuffer.wrap(data).putLong(offset + 1 + MAX_NAME_LENGTH + 2 * DiskInterface.POINTER_SIZE, node.records[i].getSize());
+		}
+		
+		if(!node.leaf)
+			for(int i = 0; i <= node.count; i++)
+				DiskInterfaceUtils.putPointer(data, childrenOffset + i * DiskInterface.POINTER_SIZE, node.children[i]);
+		
+		disk.writeBlock(node.block, data);
+	}
+	
+	/**
+	 * Returns the key used to order a file name: the name without
+	 * surrounding whitespace, in lower case.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @return  A {@code String} value representing the key.
+	 */
+	private static String toKey(String fileName) {
+		return fileName.trim().toLowerCase();
+	}
+}
@@ -1,13 +1,25 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
  * Disk.java
+ * A {@code BlockDevice} that keeps each block in its own {@code byte}
+ * array on the heap.
+ * <p>
+ * A lazy {@code Disk} makes the array of a block on its first write of
+ * anything other than zeros. Until then the block reads as zeros and takes
+ * no memory, so a large, lightly used disk starts at once and its memory
+ * follows the space in use. Writing a whole block of zeros, as freeing a
+ * block does, gives its array back.
  * 
  */
-public class Disk {
+public class Disk implements BlockDevice {
 	private int numBlocks;
 	private int blockSize;
+	private boolean lazy;
 	private byte[][] disk;
+	private byte[] zeros;
 	
 	
 	/**
@@ -21,21 +33,44 @@ public class Disk {
 	 *          An {@code int} for the number of bytes in each block.
 	 */
 	public Disk(int numBlocks, int blockSize) {
+		this(numBlocks, blockSize, false);
+	}
+	
+	/**
+	 * Constructs a Disk object of {@code numBlocks} blocks of {@code blockSize}
+	 * bytes whose block arrays are made up front or, if {@code lazy} is
+	 * {@code true}, on the first write to each block.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the Disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @param   lazy
+	 *          A {@code boolean} that is {@code true} to make each block array on
+	 *          its first non-zero write.
+	 */
+	public Disk(int numBlocks, int blockSize, boolean lazy) {
 		this.numBlocks = numBlocks;
 		this.blockSize = blockSize;
+		this.lazy = lazy;
 		setupDisk();
 	}
 	
 	/**
 	 * This method is called by the {@code Disk} object constructor and is used to
-	 * instantiate the {@code byte} arrays.
+	 * instantiate the {@code byte} arrays. New arrays are already zeroed. A
+	 * lazy {@code Disk} only makes the outer array and shares one block of
+	 * zeros for reading the blocks not yet written.
 	 */
 	private void setupDisk() {
-		disk = new byte[numBlocks][blockSize];
-		for(byte[] row: disk)
-			java.util.Arrays.fill(row, (byte) 0);
+		zeros = new byte[blockSize];
+		disk = (lazy ? new byte[numBlocks][] : new byte[numBlocks][blockSize]);
 	}
 	
+	// Getter functions.
+	public int getNumBlocks()				{return numBlocks;}
+	public int getBlockSize()				{return blockSize;}
+	
 	/**
 	 * This is the function that is used to read from the {@code Disk}.
 	 * 
@@ -47,7 +82,68 @@ public class Disk {
 	 *          the {@code Disk}.
 	 */
 	public byte read(int block, int location) {
-		return disk[block][location];
+		return row(block)[location];
+	}
+	
+	/**
+	 * Reads a complete block from the {@code Disk} and returns a copy of its
+	 * content.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block to be read.
+	 * @return  A {@code byte[]} of length {@code blockSize} holding the content of
+	 *          the indicated block.
+	 */
+	public byte[] readBlock(int block) {
+		return row(block).clone();
+	}
+	
+	/**
+	 * Reads a complete block from the {@code Disk} into the given array.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block to be read.
+	 * @param   dst
+	 *          A {@code byte[]} of at least {@code blockSize} bytes that receives
+	 *          the block content.
+	 */
+	public void readBlock(int block, byte[] dst) {
+		System.arraycopy(row(block), 0, dst, 0, blockSize);
+	}
+	
+	/**
+	 * Reads a range of bytes within a block from the {@code Disk} into the given
+	 * array.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be read.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be read.
+	 * @param   dst
+	 *          A {@code byte[]} that receives the bytes.
+	 * @param   offset
+	 *          An {@code int} for the first index in {@code dst} to be written.
+	 * @param   length
+	 *          An {@code int} for the number of bytes to be read.
+	 */
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		System.arraycopy(row(block), location, dst, offset, length);
+	}
+	
+	/**
+	 * Reads a range of bytes within a block from the {@code Disk} into the given
+	 * buffer. The number of bytes read is the number of bytes remaining in the
+	 * buffer.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be read.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be read.
+	 * @param   dst
+	 *          A {@code ByteBuffer} that receives the bytes.
+	 */
+	public void read(int block, int location, ByteBuffer dst) {
+		dst.put(row(block), location, dst.remaining());
 	}
 	
 	/**
@@ -61,12 +157,144 @@ public class Disk {
 	 *          A {@code byte} for the value to be written to the {@code Disk}.
 	 */
 	public void write(int block, int location, byte value) {
-		disk[block][location] = value;
-		for(int i = 0; i < blockSize; i++) {
-			if(disk[block][i] != 0) {
-				disk[1][block] = 1;
-				return;
-			}
+		if(disk[block] == null && value == 0) return;
+		writableRow(block)[location] = value;
+	}
+	
+	/**
+	 * Writes a complete block to the {@code Disk}.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block to be written.
+	 * @param   src
+	 *          A {@code byte[]} of at least {@code blockSize} bytes holding the new
+	 *          block content.
+	 */
+	public void writeBlock(int block, byte[] src) {
+		write(block, 0, src, 0, blockSize);
+	}
+	
+	/**
+	 * Writes a range of bytes within a block to the {@code Disk}.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be written.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be written.
+	 * @param   src
+	 *          A {@code byte[]} holding the bytes to be written.
+	 * @param   offset
+	 *          An {@code int} for the first index in {@code src} to be read.
+	 * @param   length
+	 *          An {@code int} for the number of bytes to be written.
+	 */
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		if((disk[block] == null || (lazy && length == blockSize)) && isZero(src, offset, length)) {
+			// A lazy block of zeros needs no array.
+			disk[block] = null;
+			return;
+		}
+		System.arraycopy(src, offset, writableRow(block), location, length);
+	}
+	
+	/**
+	 * Writes a range of bytes within a block to the {@code Disk}. The number of
+	 * bytes written is the number of bytes remaining in the buffer.
+	 * 
+	 * @param   block
+	 *          An {@code int} for the block containing the bytes to be written.
+	 * @param   location
+	 *          An {@code int} for the first byte within the block to be written.
+	 * @param   src
+	 *          A {@code ByteBuffer} holding the bytes to be written.
+	 */
+	public void write(int block, int location, ByteBuffer src) {
+		if((disk[block] == null || (lazy && src.remaining() == blockSize)) && isZero(src)) {
+			disk[block] = null;
+			src.position(src.limit());
+			return;
 		}
+		src.get(writableRow(block), location, src.remaining());
+	}
+	
+	/**
+	 * Makes every write so far durable. A disk held in memory has nothing
+	 * to write back.
+	 * 
+	 * @throws  IOException
+	 *          If the disk storage could not be written.
+	 */
+	public void checkpoint() throws IOException {
+	}
+	
+	/**
+	 * Writes back any unsaved changes and releases the disk storage. The
+	 * {@code Disk} must not be used afterwards.
+	 * 
+	 * @throws  IOException
+	 *          If the disk storage could not be written or closed.
+	 */
+	public void close() throws IOException {
+		checkpoint();
+	}
+	
+	/**
+	 * Returns the array of a block for reading: its own array, or the
+	 * shared block of zeros if it has none yet.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  A {@code byte[]} holding the block, which must not be changed.
+	 */
+	private byte[] row(int block) {
+		byte[] row = disk[block];
+		return (row != null ? row : zeros);
+	}
+	
+	/**
+	 * Returns the array of a block for writing, making it if the block has
+	 * none yet.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  A {@code byte[]} holding the block.
+	 */
+	private byte[] writableRow(int block) {
+		if(disk[block] == null) disk[block] = new byte[blockSize];
+		return disk[block];
+	}
+	
+	/**
+	 * Returns {@code true} if the given range of bytes is all zeros;
+	 * otherwise {@code false}.
+	 * 
+	 * @param   data
+	 *          A {@code byte[]} holding the bytes.
+	 * @param   offset
+	 *          An {@code int} value representing the first byte to check.
+	 * @param   length
+	 *          An {@code int} value representing the number of bytes to check.
+	 * @return  Returns {@code true} if every byte is zero; otherwise
+	 *          {@code false}.
+	 */
+	private static boolean isZero(byte[] data, int offset, int length) {
+		for(int i = offset; i < offset + length; i++)
+			if(data[i] != 0) return false;
+		return true;
+	}
+	
+	/**
+	 * Returns {@code true} if the bytes remaining in the buffer are all
+	 * zeros; otherwise {@code false}. The buffer position is not changed.
+	 * 
+	 * @param   data
+	 *          A {@code ByteBuffer} holding the bytes.
+	 * @return  Returns {@code true} if every byte is zero; otherwise
+	 *          {@code false}.
+	 */
+	private static boolean isZero(ByteBuffer data) {
+		for(int i = data.position(); i < data.limit(); i++)
+			if(data.get(i) != 0) return false;
+		return true;
 	}
 }
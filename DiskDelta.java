@@ -0,0 +1,222 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * DiskDelta.java
+ * A delta file holding the blocks of a disk that changed between two
+ * change-tracking checkpoints.
+ * <p>
+ * The file starts with a header giving the disk geometry, the checkpoint
+ * the delta starts from and the checkpoint it ends at, and the number of
+ * blocks. Each block follows as its index and its content, in block
+ * order. The metadata blocks are always included, starting with the
+ * superblock, but the journal is not: it only matters to the disk that
+ * wrote it. A delta from
+ * checkpoint 0 holds every block that has been written and rebuilds the
+ * disk on a new disk of the same geometry; later deltas are applied on top
+ * of it in order.
+ * 
+ */
+public class DiskDelta {
+	private final static int MAGIC = 0x56444454;
+	private final static int VERSION = 1;
+	private int blockSize;
+	private int numBlocks;
+	private int since;
+	private int checkpoint;
+	private int count;
+	
+	/**
+	 * This is the constructor for a {@code DiskDelta} object.
+	 * 
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   since
+	 *          An {@code int} for the checkpoint the delta starts from.
+	 * @param   checkpoint
+	 *          An {@code int} for the checkpoint the delta ends at.
+	 * @param   count
+	 *          An {@code int} for the number of blocks in the delta.
+	 */
+	public DiskDelta(int blockSize, int numBlocks, int since, int checkpoint, int count) {
+		this.blockSize = blockSize;
+		this.numBlocks = numBlocks;
+		this.since = since;
+		this.checkpoint = checkpoint;
+		this.count = count;
+	}
+	
+	// Getter functions.
+	public int getBlockSize()				{return blockSize;}
+	public int getNumBlocks()				{return numBlocks;}
+	public int getSince()					{return since;}
+	public int getCheckpoint()				{return checkpoint;}
+	public int getCount()					{return count;}
+	
+	/**
+	 * Writes the blocks changed since the given checkpoint to a delta file
+	 * and closes the current generation.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} to read the blocks from, with every change
+	 *          written through to it.
+	 * @param   tracker
+	 *          The {@code ChangeTracker} of the disk.
+	 * @param   since
+	 *          An {@code int} for the checkpoint to export the changes since, or
+	 *          0 for every written block.
+	 * @param   layout
+	 *          The {@code Superblock} of the disk.
+	 * @param   file
+	 *          The {@code File} to write the delta to.
+	 * @return  The {@code DiskDelta} describing the file written.
+	 * @throws  IOException
+	 *          If the delta file could not be written.
+	 * @throws  IllegalArgumentException
+	 *          If the checkpoint has not been made yet.
+	 */
+	public static DiskDelta export(BlockDevice disk, ChangeTracker tracker, int since, Superblock layout, File file) throws IOException {
+		if(since < 0 || since >= tracker.getGeneration()) throw new IllegalArgumentException("There is no checkpoint " + since + ".");
+		
+		int numBlocks = disk.getNumBlocks(), count = 0;
+		for(int i = 0; i < numBlocks; i++)
+			if(isExported(i, tracker, since, layout)) count++;
+		
+		DiskDelta delta = new DiskDelta(disk.getBlockSize(), numBlocks, since, tracker.mark(), count);
+		byte[] data = new byte[delta.blockSize];
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(delta.blockSize);
+			out.writeInt(delta.numBlocks);
+			out.writeInt(delta.since);
+			out.writeInt(delta.checkpoint);
+			out.writeInt(delta.count);
+			
+			for(int i = 0; i < numBlocks; i++) {
+				if(!isExported(i, tracker, since, layout)) continue;
+				disk.readBlock(i, data);
+				out.writeInt(i);
+				out.write(data);
+			}
+		}
+		return delta;
+	}
+	
+	/**
+	 * Reads the header of a delta file.
+	 * 
+	 * @param   file
+	 *          The {@code File} holding the delta.
+	 * @return  The {@code DiskDelta} describing the file.
+	 * @throws  IOException
+	 *          If the delta file could not be read.
+	 * @throws  IllegalArgumentException
+	 *          If the file is not a delta file.
+	 */
+	public static DiskDelta read(File file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return readHeader(in, file);
+		}
+	}
+	
+	/**
+	 * Writes the blocks of a delta file to the given disk. Nothing is
+	 * written unless the superblock in the delta has the layout of the
+	 * disk.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} to write the blocks to.
+	 * @param   layout
+	 *          The {@code Superblock} of the disk.
+	 * @param   file
+	 *          The {@code File} holding the delta.
+	 * @return  The {@code DiskDelta} describing the file applied.
+	 * @throws  IOException
+	 *          If the delta file could not be read.
+	 * @throws  IllegalArgumentException
+	 *          If the file is not a delta file or is for a disk of another
+	 *          layout.
+	 */
+	public static DiskDelta apply(BlockDevice disk, Superblock layout, File file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			DiskDelta delta = readHeader(in, file);
+			byte[] data = new byte[delta.blockSize];
+			
+			// The superblock comes first; check it before anything is written.
+			if(delta.blockSize != layout.getBlockSize() || delta.count == 0 || in.readInt() != 0) throw new IllegalArgumentException(file.getName() + " is not for this disk.");
+			in.readFully(data);
+			if(!layout.hasLayoutOf(new Superblock(ByteBuffer.wrap(data)))) throw new IllegalArgumentException(file.getName() + " is not for this disk.");
+			disk.writeBlock(0, data);
+			
+			for(int i = 1; i < delta.count; i++) {
+				int block = in.readInt();
+				if(block <= 0 || block >= delta.numBlocks) throw new IllegalArgumentException(file.getName() + " is damaged.");
+				in.readFully(data);
+				if(!layout.isJournalBlock(block)) disk.writeBlock(block, data);
+			}
+			return delta;
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the given block belongs in a delta from the
+	 * given checkpoint; otherwise {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   tracker
+	 *          The {@code ChangeTracker} of the disk.
+	 * @param   since
+	 *          An {@code int} for the checkpoint the delta starts from.
+	 * @param   layout
+	 *          The {@code Superblock} of the disk.
+	 * @return  Returns {@code true} if the block is exported; otherwise
+	 *          {@code false}.
+	 */
+	private static boolean isExported(int block, ChangeTracker tracker, int since, Superblock layout) {
+		if(layout.isJournalBlock(block)) return false;
+		return block < layout.getFirstDataBlock() || tracker.isChanged(block, since);
+	}
+	
+	/**
+	 * Reads and checks the header of a delta file.
+	 * 
+	 * @param   in
+	 *          The {@code DataInputStream} positioned at the start of the file.
+	 * @param   file
+	 *          The {@code File} being read, for messages.
+	 * @return  The {@code DiskDelta} describing the file.
+	 * @throws  IOException
+	 *          If the delta file could not be read.
+	 */
+	private static DiskDelta readHeader(DataInputStream in, File file) throws IOException {
+		if(in.readInt() != MAGIC) throw new IllegalArgumentException(file.getName() + " is not a delta file.");
+		if(in.readInt() != VERSION) throw new IllegalArgumentException(file.getName() + " has an unsupported version.");
+		return new DiskDelta(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+	}
+	
+	/**
+	 * The DiskDelta toString function override for the Object class.
+	 * <p>
+	 * Returns a string representation for the DiskDelta object.
+	 * 
+	 * @return  Returns a {@code String} representation for the
+	 *          {@code DiskDelta} object.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return String.format("Checkpoint %d -> %d, %d block(s) of %d bytes", since, checkpoint, count, blockSize);
+	}
+}
@@ -0,0 +1,161 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * DiskFile.java
+ * A handle for reading and writing the bytes of a file on the disk at any
+ * offset, without reading the file up to that offset.
+ * <p>
+ * A contiguous file finds the block holding an offset from its start
+ * block, and an indexed file through its index block. A chained file keeps
+ * a table of the blocks in its chain, filled as far as the offsets asked
+ * for, so each link is read once for the life of the handle. When the
+ * disk is cached, a handle read in order fetches the blocks ahead of it
+ * into the cache in batches.
+ * 
+ */
+public class DiskFile {
+	private BlockDevice disk;
+	private AllocationType type;
+	private FileRecord fileRecord;
+	private int payload;
+	private IndexBlock index;
+	private int[] chain;
+	private int chainLength;
+	private Readahead readahead;
+	
+	
+	/**
+	 * Constructs a {@code DiskFile} over the file described by the given
+	 * record.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the file: the disk or a snapshot
+	 *          of it.
+	 * @param   fileRecord
+	 *          The {@code FileRecord} of the file on that device.
+	 */
+	public DiskFile(BlockDevice disk, FileRecord fileRecord) {
+		this.disk = disk;
+		this.type = DiskInterface.type;
+		this.fileRecord = fileRecord;
+		this.payload = (type == AllocationType.CHAINED ? DiskInterface.CHAINED_BLOCK_SIZE : DiskInterface.BLOCK_SIZE);
+		
+		switch(type) {
+		case CHAINED:
+			// Only the first link is known until an offset further along is asked for.
+			this.chain = new int[Math.max(fileRecord.getLength(), 1)];
+			this.chain[0] = fileRecord.getStartBlock();
+			this.chainLength = 1;
+			break;
+		case INDEXED:
+			this.index = new IndexBlock(disk, fileRecord.getIndexBlock());
+			break;
+		default:
+			break;
+		}
+		this.readahead = Readahead.forFile(disk, fileRecord.getSize(), this::getBlock);
+	}
+	
+	// Getter functions.
+	public String getFileName()				{return fileRecord.getFileName();}
+	public long getSize()					{return fileRecord.getSize();}
+	
+	/**
+	 * Reads bytes of the file from the given offset into the buffer, until
+	 * the buffer is full or the file ends.
+	 * 
+	 * @param   offset
+	 *          A {@code long} value representing the position in the file of the
+	 *          first byte to read.
+	 * @param   dst
+	 *          The {@code ByteBuffer} to read into.
+	 * @return  An {@code int} value representing the number of bytes read, or -1
+	 *          if the offset is at or past the end of the file.
+	 * @throws  IllegalArgumentException
+	 *          If the offset is negative.
+	 */
+	public int read(long offset, ByteBuffer dst) {
+		if(offset < 0) throw new IllegalArgumentException("The offset cannot be negative.");
+		if(offset >= getSize()) return -1;
+		
+		int total = 0;
+		while(dst.hasRemaining() && offset < getSize()) {
+			int location = (int)(offset % payload);
+			int count = (int)Math.min(Math.min(payload - location, dst.remaining()), getSize() - offset);
+			
+			// Read just this block's share of the buffer.
+			int limit = dst.limit();
+			dst.limit(dst.position() + count);
+			int n = (int)(offset / payload), block = getBlock(n);
+			if(readahead != null) readahead.access(n, block);
+			disk.read(block, location, dst);
+			dst.limit(limit);
+			
+			offset += count;
+			total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Writes the bytes remaining in the buffer over the file from the given
+	 * offset. The bytes must already be part of the file; the file does not
+	 * grow.
+	 * 
+	 * @param   offset
+	 *          A {@code long} value representing the position in the file of the
+	 *          first byte to write.
+	 * @param   src
+	 *          The {@code ByteBuffer} holding the bytes to write.
+	 * @return  An {@code int} value representing the number of bytes written.
+	 * @throws  EOFException
+	 *          If the bytes would go past the end of the file.
+	 * @throws  IllegalArgumentException
+	 *          If the offset is negative.
+	 */
+	public int write(long offset, ByteBuffer src) throws IOException {
+		if(offset < 0) throw new IllegalArgumentException("The offset cannot be negative.");
+		if(offset + src.remaining() > getSize()) throw new EOFException("The write goes past the end of " + getFileName() + ".");
+		
+		int total = 0;
+		while(src.hasRemaining()) {
+			int location = (int)(offset % payload);
+			int count = Math.min(payload - location, src.remaining());
+			
+			// Write just this block's share of the buffer.
+			int limit = src.limit();
+			src.limit(src.position() + count);
+			disk.write(getBlock((int)(offset / payload)), location, src);
+			src.limit(limit);
+			
+			offset += count;
+			total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the disk block that holds the given block of the file.
+	 * 
+	 * @param   n
+	 *          An {@code int} value representing the position of the block in the
+	 *          file, starting at 0.
+	 * @return  An {@code int} value representing the block on the disk.
+	 */
+	private int getBlock(int n) {
+		switch(type) {
+		case CHAINED:
+			// Follow the links past the end of the table as far as block n.
+			for(; chainLength <= n; chainLength++)
+				chain[chainLength] = DiskInterfaceUtils.readChainLink(disk, chain[chainLength - 1]);
+			return chain[n];
+		case INDEXED:
+			return index.getBlock(n);
+		default:
+			return fileRecord.getStartBlock() + n;
+		}
+	}
+}
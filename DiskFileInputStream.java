@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * DiskFileInputStream.java
+ * An {@code InputStream} over a file on the disk that reads one block at a
+ * time, following the chain, the index block or the extent of the file.
+ * <p>
+ * The stream holds a single block, so a file of any size is read in the
+ * same memory. It ends at the size in the file record, so the zeros that
+ * pad the last block are not read. When the disk is cached, the blocks
+ * ahead of the stream are fetched into the cache in batches.
+ * 
+ */
+public class DiskFileInputStream extends InputStream {
+	private BlockDevice disk;
+	private AllocationType type;
+	private IndexBlock index;
+	private int block;
+	private int n;
+	private long remaining;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private Readahead readahead;
+	private int aheadN;
+	private int aheadBlock;
+	
+	
+	/**
+	 * Constructs a {@code DiskFileInputStream} over the file described by
+	 * the given record.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the file: the disk or a snapshot
+	 *          of it.
+	 * @param   fileRecord
+	 *          The {@code FileRecord} of the file on that device.
+	 */
+	public DiskFileInputStream(BlockDevice disk, FileRecord fileRecord) {
+		this.disk = disk;
+		this.type = DiskInterface.type;
+		this.buffer = new byte[DiskInterface.BLOCK_SIZE];
+		this.remaining = fileRecord.getSize();
+		
+		if(type == AllocationType.INDEXED) this.index = new IndexBlock(disk, fileRecord.getIndexBlock());
+		else this.block = this.aheadBlock = fileRecord.getStartBlock();
+		this.readahead = Readahead.forFile(disk, remaining, this::getBlockAhead);
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if(!fill()) return -1;
+		return buffer[position++] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(!fill()) return -1;
+		
+		int count = Math.min(limit - position, len);
+		System.arraycopy(buffer, position, b, off, count);
+		position += count;
+		return count;
+	}
+	
+	@Override
+	public int available() {
+		return limit - position;
+	}
+	
+	/**
+	 * Reads the next block of the file once the bytes of the last one have
+	 * all been given.
+	 * 
+	 * @return  Returns {@code true} if there are bytes to give; otherwise
+	 *          {@code false} at the end of the file.
+	 */
+	private boolean fill() {
+		if(position < limit) return true;
+		if(remaining == 0) return false;
+		
+		limit = (int)Math.min(nextBlock(), remaining);
+		remaining -= limit;
+		position = 0;
+		return true;
+	}
+	
+	/**
+	 * Reads the next block of the file into the buffer and moves on to the
+	 * block after it.
+	 * 
+	 * @return  An {@code int} value representing the number of bytes of file
+	 *          content in the block.
+	 */
+	private int nextBlock() {
+		int payload = DiskInterface.BLOCK_SIZE;
+		if(type == AllocationType.INDEXED) block = index.getBlock(n);
+		if(readahead != null) readahead.access(n, block);
+		
+		switch(type) {
+		case CHAINED:
+			// The link to the next block follows the data, unless the disk keeps a chain table.
+			disk.readBlock(block, buffer);
+			payload = DiskInterface.CHAINED_BLOCK_SIZE;
+			block = (payload < DiskInterface.BLOCK_SIZE ? DiskInterfaceUtils.getPointer(buffer, payload) : DiskInterfaceUtils.readChainLink(disk, block));
+			break;
+		case INDEXED:
+			disk.readBlock(block, buffer);
+			break;
+		case CONTIGUOUS:
+			disk.readBlock(block++, buffer);
+			break;
+		}
+		
+		n++;
+		return payload;
+	}
+	
+	/**
+	 * Returns the disk block that holds the given block of the file, for the
+	 * readahead. The blocks are asked for in order, so a chain is followed
+	 * on from the last block given.
+	 * 
+	 * @param   i
+	 *          An {@code int} value representing the position of the block in the
+	 *          file, starting at 0.
+	 * @return  An {@code int} value representing the block on the disk.
+	 */
+	private int getBlockAhead(int i) {
+		switch(type) {
+		case CHAINED:
+			for(; aheadN < i; aheadN++)
+				aheadBlock = DiskInterfaceUtils.readChainLink(disk, aheadBlock);
+			return aheadBlock;
+		case INDEXED:
+			return index.getBlock(i);
+		default:
+			return aheadBlock + i;
+		}
+	}
+}
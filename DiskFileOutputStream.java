@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * DiskFileOutputStream.java
+ * An {@code OutputStream} that writes a new file to the disk one block at a
+ * time, taking each block from the free space as the data arrives.
+ * <p>
+ * A chained file takes random free blocks, each linked to the next as it
+ * is written. An indexed file takes random free blocks and lists them in
+ * its index block. A contiguous file grows into the block after its end
+ * while that block is free, and otherwise moves to a free extent with room
+ * to double. The file only joins the directory when the stream is closed,
+ * so a file that fails part way leaves nothing behind.
+ * 
+ */
+public class DiskFileOutputStream extends OutputStream {
+	private BlockDevice disk;
+	private AllocationType type;
+	private String fileName;
+	private byte[] buffer;
+	private int payload;
+	private int position;
+	private long size;
+	private int numBlocks;
+	private int start;
+	private int block;
+	private IndexBlock index;
+	private boolean closed;
+	
+	
+	/**
+	 * Constructs a {@code DiskFileOutputStream} that writes a new file of the
+	 * given name to the disk.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @param   expectedSize
+	 *          A {@code long} value representing the number of bytes expected,
+	 *          used to place a contiguous file, or 0 if it is not known.
+	 * @throws  IOException
+	 *          If the disk has no free block for the index block of the file.
+	 */
+	public DiskFileOutputStream(String fileName, long expectedSize) throws IOException {
+		this.disk = DiskInterface.disk;
+		this.type = DiskInterface.type;
+		this.fileName = fileName;
+		this.buffer = new byte[DiskInterface.BLOCK_SIZE];
+		this.payload = (type == AllocationType.CHAINED ? DiskInterface.CHAINED_BLOCK_SIZE : DiskInterface.BLOCK_SIZE);
+		this.start = -1;
+		this.block = -1;
+		
+		switch(type) {
+		case INDEXED:
+			// The index block lists the data blocks as they are written.
+			start = take();
+			disk.writeBlock(start, new byte[DiskInterface.BLOCK_SIZE]);
+			index = new IndexBlock(disk, start);
+			break;
+		case CONTIGUOUS:
+			// Place the file where the expected size fits, compacting if the free space is only too fragmented.
+			int needed = (int)Math.max(1, Math.min(Integer.MAX_VALUE, (expectedSize + payload - 1) / payload));
+			start = DiskInterfaceUtils.getNextContigSpace(needed);
+			if(start < 0 && needed > 1 && DiskInterfaceUtils.hasFreeSpace(needed)) {
+				DiskInterfaceUtils.compact(Integer.MAX_VALUE);
+				start = DiskInterfaceUtils.getNextContigSpace(needed);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if(closed) throw new IOException("The stream is closed.");
+		if(position == payload) writeBlock(false);
+		
+		buffer[position++] = (byte)b;
+		size++;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(closed) throw new IOException("The stream is closed.");
+		
+		while(len > 0) {
+			// A full block is only written once more data follows it.
+			if(position == payload) writeBlock(false);
+			
+			int count = Math.min(payload - position, len);
+			System.arraycopy(b, off, buffer, position, count);
+			position += count;
+			off += count;
+			len -= count;
+			size += count;
+		}
+	}
+	
+	/**
+	 * Writes the last block of the file and adds the file to the directory.
+	 * A chained or contiguous file always has at least one block.
+	 * 
+	 * @throws  IOException
+	 *          If the last block could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+		
+		if(position > 0 || (numBlocks == 0 && type != AllocationType.INDEXED)) writeBlock(true);
+		closed = true;
+		
+		if(index != null) index.save();
+		DiskInterfaceUtils.writeFileToFAT(fileName, start, numBlocks, size);
+	}
+	
+	/**
+	 * Returns every block taken by the file to the free space without adding
+	 * the file to the directory. Does nothing once the stream is closed.
+	 */
+	public void discard() {
+		if(closed) return;
+		closed = true;
+		
+		switch(type) {
+		case CHAINED:
+			// Follow the links of the written blocks, then free the block taken for the next one.
+			int link = start;
+			for(int i = 0; i < numBlocks; i++) {
+				int next = DiskInterfaceUtils.readChainLink(link);
+				DiskInterfaceUtils.freeBlock(link);
+				link = next;
+			}
+			if(block >= 0) DiskInterfaceUtils.freeBlock(block);
+			break;
+		case INDEXED:
+			for(int dataBlock : index.getBlocks())
+				DiskInterfaceUtils.freeBlock(dataBlock);
+			for(int indirectBlock : index.getIndirectBlocks())
+				DiskInterfaceUtils.freeBlock(indirectBlock);
+			DiskInterfaceUtils.freeBlock(start);
+			break;
+		case CONTIGUOUS:
+			for(int i = 0; i < numBlocks; i++)
+				DiskInterfaceUtils.freeBlock(start + i);
+			break;
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes written to the file so far.
+	 * 
+	 * @return  A {@code long} value representing the size of the file.
+	 */
+	public long getSize() {
+		return size;
+	}
+	
+	/**
+	 * Writes the buffered bytes to the next block of the file, padded with
+	 * zeros. The blocks taken so far are freed if the disk is full.
+	 * 
+	 * @param   last
+	 *          A {@code boolean} that is {@code true} if no data follows this
+	 *          block.
+	 * @throws  IOException
+	 *          If the disk has no free block, or no free extent for a
+	 *          contiguous file, or an index block has no room for the block.
+	 */
+	private void writeBlock(boolean last) throws IOException {
+		try {
+			Arrays.fill(buffer, position, DiskInterface.BLOCK_SIZE, (byte) 0);
+			int written = -1;
+			
+			switch(type) {
+			case CHAINED:
+				// Take the next block first so this one can link to it, in the block or in the chain table.
+				if(block < 0) block = start = take();
+				int next = (last ? 0 : take());
+				if(DiskInterface.chainTable != null) DiskInterface.chainTable.setNext(block, next);
+				else DiskInterfaceUtils.putPointer(buffer, payload, next);
+				disk.writeBlock(written = block, buffer);
+				block = (last ? -1 : next);
+				break;
+			case INDEXED:
+				// Make sure the indirect blocks the new pointer needs will fit as well.
+				int n = index.getNumBlocks();
+				if(n >= IndexBlock.getMaxBlocks()) throw new IOException("The file is too large for an index block.");
+				if(!DiskInterfaceUtils.hasFreeSpace(1 + IndexBlock.getIndirectBlockCount(n + 1) - IndexBlock.getIndirectBlockCount(n)))
+					throw new IOException("There is not enough free space on the disk.");
+				
+				written = DiskInterfaceUtils.allocateBlock();
+				index.append(written);
+				disk.writeBlock(written, buffer);
+				break;
+			case CONTIGUOUS:
+				disk.writeBlock(written = grow(), buffer);
+				break;
+			}
+			
+			if(Project3.debugMode) System.out.println("Used Block: " + written);
+			numBlocks++;
+			position = 0;
+		}
+		catch(IOException | RuntimeException e) {
+			discard();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Takes a random free block for the file.
+	 * 
+	 * @return  An {@code int} value representing the block on the disk.
+	 * @throws  IOException
+	 *          If the disk has no free block.
+	 */
+	private int take() throws IOException {
+		int free = (DiskInterfaceUtils.hasFreeSpace(1) ? DiskInterfaceUtils.allocateBlock() : -1);
+		if(free < 0) throw new IOException("There is not enough free space on the disk.");
+		return free;
+	}
+	
+	/**
+	 * Takes the block after the end of a contiguous file. If that block is
+	 * in use, the file is first moved to a free extent with room to double.
+	 * 
+	 * @return  An {@code int} value representing the new last block of the file.
+	 * @throws  IOException
+	 *          If no free extent can hold the file and one more block.
+	 */
+	private int grow() throws IOException {
+		if(!DiskInterfaceUtils.hasFreeSpace(1)) throw new IOException("There is not enough free space on the disk.");
+		if(start >= 0 && DiskInterfaceUtils.allocateBlock(start + numBlocks)) return start + numBlocks;
+		
+		// Move the file to a free extent with room to double, or at least to take one more block.
+		int target = DiskInterfaceUtils.getNextContigSpace(Math.max(2 * numBlocks, 1));
+		if(target < 0) target = DiskInterfaceUtils.getNextContigSpace(numBlocks + 1);
+		if(target < 0 || !DiskInterfaceUtils.hasFreeSpace(numBlocks + 1)) throw new IOException("There is not enough contiguous free space on the disk.");
+		
+		byte[] data = new byte[DiskInterface.BLOCK_SIZE];
+		for(int i = 0; i < numBlocks; i++) {
+			disk.readBlock(start + i, data);
+			disk.writeBlock(target + i, data);
+			DiskInterfaceUtils.allocateBlock(target + i);
+			DiskInterfaceUtils.freeBlock(start + i);
+		}
+		
+		start = target;
+		DiskInterfaceUtils.allocateBlock(start + numBlocks);
+		return start + numBlocks;
+	}
+}
@@ -1,11 +1,14 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 
 /**
@@ -13,14 +16,26 @@ import java.util.ArrayList;
  * 
  */
 public class DiskInterface {
-	protected final static int NUM_BLOCKS = 256;
-	protected final static int BLOCK_SIZE = 512;
-	protected final static int CHAINED_BLOCK_SIZE = BLOCK_SIZE - 1;
-	protected static int recordSize;
-	protected static int maxRecords;
+	protected final static int POINTER_SIZE = 4;
+	protected final static int MIN_BLOCK_SIZE = 256;
+	
+	// The disk geometry, fixed for the life of the disk once it is created.
+	protected static int NUM_BLOCKS;
+	protected static int BLOCK_SIZE;
+	protected static int CHAINED_BLOCK_SIZE;
+	protected static int FIRST_DATA_BLOCK;
+	protected static Superblock superblock;
 	protected static AllocationType type;
-	protected static Disk disk;
-	protected static ArrayList<FileRecord> fileAllocationTable = new ArrayList<FileRecord>();
+	protected static FitPolicy fitPolicy;
+	protected static BlockDevice disk;
+	protected static CopyOnWriteDisk volume;
+	protected static ChangeTracker tracker;
+	protected static BlockCache cache;
+	protected static Journal journal;
+	protected static ChainTable chainTable;
+	protected static FreeSpaceBitmap bitmap;
+	protected static DirectoryTree directory;
+	protected static HashMap<String, FileRecord> fileRecords = new HashMap<String, FileRecord>();
 	
 	
 	/**
@@ -30,37 +45,164 @@ public class DiskInterface {
 	 * @param   type
 	 * 	        A disk {@code AllocationType}.
 	 * @throws  Exception 
-	 *          If the {@code BLOCK_SIZE} is less than the
-	 *          {@code NUM_BLOCKS}.
+	 *          If the disk geometry is not valid.
 	 * @throws  IndexOutOfBoundsException
 	 * 	        If the {@code type} is not a valid {@code AllocationType}
 	 * 	        value.
 	 * @see     AllocationType
 	 */
-	@SuppressWarnings("unused")
 	public DiskInterface(AllocationType type) throws Exception {
-		if(BLOCK_SIZE < NUM_BLOCKS) throw new Exception("Error: Block size must not be smaller than the number of blocks.");
+		this(type, FitPolicy.FIRST_FIT);
+	}
+	
+	/**
+	 * Constructs the {@code DistInterface} object with the
+	 * {@code AllocationType} set to the given value and the given
+	 * {@code FitPolicy} for choosing free space in a contiguous disk.
+	 * 
+	 * @param   type
+	 * 	        A disk {@code AllocationType}.
+	 * @param   fitPolicy
+	 *          The {@code FitPolicy} used to choose free extents for contiguous
+	 *          allocation.
+	 * @throws  Exception 
+	 *          If the disk geometry is not valid.
+	 * @throws  IndexOutOfBoundsException
+	 * 	        If the {@code type} is not a valid {@code AllocationType}
+	 * 	        value.
+	 * @see     AllocationType
+	 * @see     FitPolicy
+	 */
+	public DiskInterface(AllocationType type, FitPolicy fitPolicy) throws Exception {
+		this(type, fitPolicy, new DiskOptions());
+	}
+	
+	/**
+	 * Constructs the {@code DistInterface} object with the
+	 * {@code AllocationType} set to the given value, the given
+	 * {@code FitPolicy} and a disk created with the given options.
+	 * 
+	 * @param   type
+	 * 	        A disk {@code AllocationType}.
+	 * @param   fitPolicy
+	 *          The {@code FitPolicy} used to choose free extents for contiguous
+	 *          allocation.
+	 * @param   options
+	 *          The {@code DiskOptions} describing the disk geometry and storage.
+	 * @throws  Exception 
+	 *          If the block size is smaller than {@code MIN_BLOCK_SIZE}, the
+	 *          disk has no room for data after its metadata blocks, or the
+	 *          device does not suit the disk image option.
+	 * @throws  IndexOutOfBoundsException
+	 * 	        If the {@code type} is not a valid {@code AllocationType}
+	 * 	        value.
+	 * @see     AllocationType
+	 * @see     FitPolicy
+	 * @see     DiskOptions
+	 */
+	public DiskInterface(AllocationType type, FitPolicy fitPolicy, DiskOptions options) throws Exception {
+		File image = (options.getImage() != null ? new File(options.getImage()) : null);
+		boolean mount = (image != null && image.length() > 0);
+		
+		// An image saved sparse is always opened sparse.
+		DeviceType device = options.getDevice();
+		if(mount && SparseImageDisk.isSparseImage(image)) device = DeviceType.SPARSE;
+		if((image != null) != (device == DeviceType.CHANNEL || device == DeviceType.MAPPED || device == DeviceType.SPARSE))
+			throw new Exception("Error: A " + device.toString().toLowerCase() + " device " + (image != null ? "cannot keep a disk image." : "needs a disk image."));
+		
+		if(mount) {
+			// Take the layout from the existing disk image.
+			DiskInterface.superblock = (device == DeviceType.SPARSE ? SparseImageDisk.readSuperblock(image) : Superblock.read(image));
+			if(superblock.getType() != type) throw new Exception("Error: The disk image holds a " + superblock.getType().toString().toLowerCase() + " disk.");
+		}
+		else {
+			if(options.getBlockSize() < MIN_BLOCK_SIZE) throw new Exception("Error: Block size must be at least " + MIN_BLOCK_SIZE + " bytes.");
+			if(options.getJournalBlocks() > 0 && options.getJournalBlocks() < Journal.MIN_BLOCKS) throw new Exception("Error: The journal must have at least " + Journal.MIN_BLOCKS + " blocks.");
+			if(options.hasChainTable() && type != AllocationType.CHAINED) throw new Exception("Error: Only a chained disk can keep its links in a chain table.");
+			
+			// Lay out the metadata blocks for the requested geometry.
+			DiskInterface.superblock = new Superblock(options.getNumBlocks(), options.getBlockSize(), type, POINTER_SIZE, options.getJournalBlocks(), options.hasChainTable());
+			if(options.getNumBlocks() <= superblock.getFirstDataBlock()) throw new Exception("Error: The disk must have more than " + superblock.getFirstDataBlock() + " blocks.");
+		}
+		
+		NUM_BLOCKS = superblock.getNumBlocks();
+		BLOCK_SIZE = superblock.getBlockSize();
+		CHAINED_BLOCK_SIZE = (superblock.getTableBlocks() > 0 ? BLOCK_SIZE : BLOCK_SIZE - POINTER_SIZE);
+		FIRST_DATA_BLOCK = superblock.getFirstDataBlock();
 		
-		DiskInterface.disk = new Disk(NUM_BLOCKS, BLOCK_SIZE);
+		switch(device) {
+		case DIRECT:
+			DiskInterface.disk = new DirectBufferDisk(NUM_BLOCKS, BLOCK_SIZE);
+			break;
+		case CHANNEL:
+			DiskInterface.disk = new FileChannelDisk(image, NUM_BLOCKS, BLOCK_SIZE);
+			break;
+		case MAPPED:
+			DiskInterface.disk = new MappedDisk(image, NUM_BLOCKS, BLOCK_SIZE);
+			break;
+		case SPARSE:
+			DiskInterface.disk = new SparseImageDisk(image, NUM_BLOCKS, BLOCK_SIZE);
+			break;
+		case LAZY:
+			DiskInterface.disk = new Disk(NUM_BLOCKS, BLOCK_SIZE, true);
+			break;
+		default:
+			DiskInterface.disk = new Disk(NUM_BLOCKS, BLOCK_SIZE);
+		}
+		
+		// Snapshots are taken of the volume as it is on the device.
+		DiskInterface.volume = new CopyOnWriteDisk(disk);
+		DiskInterface.disk = volume;
+		
+		// Track the blocks written to the volume for incremental exports.
+		DiskInterface.tracker = new ChangeTracker(disk, (image != null ? new File(image.getPath() + ".cbt") : null), !mount);
+		DiskInterface.disk = tracker;
+		
+		// Put the cache in front of the device and keep the metadata blocks, other than the journal and the chain table held in memory, in it.
+		DiskInterface.cache = null;
+		if(options.getCacheBlocks() > 0) {
+			DiskInterface.cache = new BlockCache(disk, options.getCacheBlocks());
+			for(int i = 0; i < FIRST_DATA_BLOCK; i++)
+				if(!superblock.isJournalBlock(i) && !superblock.isTableBlock(i)) cache.pin(i);
+			DiskInterface.disk = cache;
+		}
+		
+		// Clear the journal of a new disk, or finish the last group of changes to an existing one.
+		DiskInterface.journal = null;
+		if(superblock.getJournalBlocks() > 0) {
+			DiskInterface.journal = new Journal(disk, superblock.getJournalStart(), superblock.getJournalBlocks(), !mount);
+			DiskInterface.disk = journal;
+			if(journal.getReplayedBlocks() > 0) System.out.println("The journal was replayed. " + journal.getReplayedBlocks() + " block(s) restored.");
+		}
+		
+		// Keep the links of a chained disk with a chain table in memory.
+		DiskInterface.chainTable = null;
+		if(superblock.getTableBlocks() > 0)
+			DiskInterface.chainTable = (mount ? ChainTable.read(disk, superblock.getTableStart()) : new ChainTable(NUM_BLOCKS, BLOCK_SIZE));
 		DiskInterface.type = type;
+		DiskInterface.fitPolicy = fitPolicy;
 		
 		switch(DiskInterface.type) {
 		case CHAINED:
-			recordSize = 10;
-			maxRecords = BLOCK_SIZE/recordSize;
-			break;
 		case INDEXED:
-			recordSize = 9;
-			maxRecords = BLOCK_SIZE/recordSize;
-			break;
 		case CONTIGUOUS:
-			recordSize = 10;
-			maxRecords = BLOCK_SIZE/recordSize;
 			break;
 		default:
 			throw new IndexOutOfBoundsException("Invalid disk AllocationType.");
 		}
 		
+		// Format a new disk. The directory tree is rooted in the block after the bitmap and journal.
+		if(!mount) superblock.write(disk);
+		DiskInterface.directory = new DirectoryTree(disk, superblock.getRootBlock());
+		
+		// Read the directory. A journaled bitmap is always in step with it; otherwise derive the bitmap from the allocation metadata.
+		DiskInterfaceUtils.loadFAT();
+		if(mount && journal != null) DiskInterfaceUtils.loadBitmap();
+		else DiskInterfaceUtils.rebuildBitmap();
+		
+		// A sparse image keeps only the blocks the bitmap marks as used.
+		if(device == DeviceType.SPARSE) ((SparseImageDisk)volume.getDevice()).setAllocation(block -> bitmap.isUsed(block));
+		
 		runSimulation();
 	}
 	
@@ -77,6 +219,12 @@ public class DiskInterface {
 				"Copy a file from the simulation to a file on the real system",
 				"Copy a file from the real system to a file in the simulation",
 				"Delete a file",
+				"Check the disk for errors",
+				"Compact the disk",
+				"Display the block cache statistics",
+				"Manage the disk snapshots",
+				"Export or import disk changes",
+				"Read or write part of a file",
 				"Exit"};
 		
 		while(true) {
@@ -103,9 +251,31 @@ public class DiskInterface {
 				deleteFile();
 				break;
 			case 8:
+				checkDisk();
+				break;
+			case 9:
+				compactDisk();
+				break;
+			case 10:
+				displayCacheStatistics();
+				break;
+			case 11:
+				manageSnapshots();
+				break;
+			case 12:
+				manageDeltas();
+				break;
+			case 13:
+				editFile();
+				break;
+			case 14:
 				shutDown();
 				break;
 			}
+			
+			// Save the changes made by the last function.
+			try {DiskInterfaceUtils.checkpoint();}
+			catch(IOException e) {System.out.println("Something went wrong when saving the disk.");e.printStackTrace();}
 		}
 	}
 	
@@ -129,93 +299,21 @@ public class DiskInterface {
 					if(Project3.scanner.hasNextLine())
 						fileName = Project3.scanner.nextLine().trim();
 					
-					if(fileName.length() > 4 && fileName.length() <= 8) break;
+					if(DiskInterfaceUtils.isValidFileName(fileName)) break;
 					else System.out.println("Invalid entry. Please enter a valid file name. E.g. \"text.txt\".");
 				}
 				catch(Exception e) {System.out.println("Invalid entry. Please try again.");}
 			}
 			
-			// Get file record info from FAT.
-			FileRecord fileRecord = DiskInterfaceUtils.getFileRecord(fileName);
-			int block = 0, length = 0;
-			
-			// Get file bytes based on allocation type.
-			switch(type) {
-			case CHAINED:
-				// FAT Chained: File Name, Start Block, Length
-				block = fileRecord.getStartBlock();
-				length = fileRecord.getLength();
-				
-				System.out.println("\nContents of " + fileName + ":");
-				// Chained: Random free block. Last bit points to next free block.
-				while(true) {
-					if(length > 1) {
-						for(int i = 0; i < CHAINED_BLOCK_SIZE; i++)
-							System.out.print((char)(disk.read(block, i) & 0xFF));
-						length--;
-						block = (disk.read(block, CHAINED_BLOCK_SIZE) & 0xFF);
-					}
-					else {
-						for(int i = 0; i < BLOCK_SIZE; i++)
-							System.out.print((char)(disk.read(block, i) & 0xFF));
-						System.out.println();
-						break;
-					}
-				}
-				break;
-			case INDEXED:
-				// FAT Indexed: File Name, Index Block
-				block = fileRecord.getIndexBlock();
-				
-				// Get indexes from index block.
-				ArrayList<Integer> indexes = new ArrayList<Integer>();
-				for(int i = 0; i < 10; i++) {
-					if(disk.read(block, i) == 0) break;
-					indexes.add(Byte.toUnsignedInt(disk.read(block, i)));
-					length++;
-				}
-				
-				System.out.println("\nContents of " + fileName + ":");
-				// Indexed: Random Free block to store an ordered list of other random free blocks holding the file.
-				while(true) {
-					block = indexes.remove(0);
-					
-					if(length > 1) {
-						for(int i = 0; i < BLOCK_SIZE; i++)
-							System.out.print((char)(disk.read(block, i) & 0xFF));
-						length--;
-					}
-					else {
-						for(int i = 0; i < BLOCK_SIZE ; i++)
-							System.out.print((char)(disk.read(block, i) & 0xFF));
-						System.out.println();
-						break;
-					}
-				}
-				break;
-			case CONTIGUOUS:
-				// FAT Contiguous: File Name, Start Block, Length
-				block = fileRecord.getStartBlock();
-				length = fileRecord.getLength();
-				
-				System.out.println("\nContents of " + fileName + ":");
-				// Contiguous: First available set of blocks large enough.
-				while(true) {
-					if(length > 1) {
-						for(int i = 0; i < BLOCK_SIZE; i++)
-							System.out.print((char)(disk.read(block, i) & 0xFF));
-						block++;
-						length--;
-					}
-					else {
-						for(int i = 0; i < BLOCK_SIZE ; i++)
-							System.out.print((char)(disk.read(block, i) & 0xFF));
-						System.out.println();
-						break;
-					}
-				}
-				break;
+			// Stream the file a block at a time, one character per byte.
+			System.out.println("\nContents of " + fileName + ":");
+			try(DiskFileInputStream stream = DiskInterfaceUtils.openFile(fileName)) {
+				byte[] buffer = new byte[BLOCK_SIZE];
+				for(int count; (count = stream.read(buffer)) > 0;)
+					System.out.print(new String(buffer, 0, count, StandardCharsets.ISO_8859_1));
+				System.out.println();
 			}
+			catch(IOException e) {System.out.println("Something went wrong when reading the file. Please try again.");e.printStackTrace();}
 		}
 		// Print message if no files on disk.
 		else
@@ -226,50 +324,47 @@ public class DiskInterface {
 	}
 	
 	/**
-	 * Displays the file allocation table. Formatting is applied based on
+	 * Displays the directory in name order. Formatting is applied based on
 	 * allocation type. 
 	 */
 	private void displayFileTable() {
 		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
-		// Get the number of records in the FAT.
-		int numRecords = DiskInterfaceUtils.getFAT();
+		// Walk the directory in name order.
+		ArrayList<FileRecord> records = directory.list();
 		
 		System.out.println();
-		if(numRecords > 0) {
+		if(records.size() > 0) {
 			// Display the file info based on allocation type.
 			switch(type) {
 			case CHAINED:
-				// Chained: File Name, Start Block, Length
-				System.out.println("----------------------------------------");
-				System.out.printf("%-15s%15s%10s\n", "File Name", "Start Block", "Length");
-				System.out.println("----------------------------------------");
+				// Chained: File Name, Start Block, Length, Size
+				System.out.println("--------------------------------------------------");
+				System.out.printf("%-15s%15s%10s%10s\n", "File Name", "Start Block", "Length", "Size");
+				System.out.println("--------------------------------------------------");
 				
-				for(int i = 0; i < numRecords; i++)
-					if(fileAllocationTable.get(i).getFileName() != null)
-						System.out.printf("%-15s%15d%10d\n", fileAllocationTable.get(i).getFileName(), fileAllocationTable.get(i).getStartBlock(), fileAllocationTable.get(i).getLength());
+				for(FileRecord fileRecord : records)
+					System.out.printf("%-15s%15d%10d%10d\n", fileRecord.getFileName(), fileRecord.getStartBlock(), fileRecord.getLength(), fileRecord.getSize());
 				
 				break;
 			case INDEXED:
-				// Indexed: File Name, Index Block
-				System.out.println("------------------------------");
-				System.out.printf("%-15s%15s\n", "File Name", "Index Block");
-				System.out.println("------------------------------");
+				// Indexed: File Name, Index Block, Size
+				System.out.println("----------------------------------------");
+				System.out.printf("%-15s%15s%10s\n", "File Name", "Index Block", "Size");
+				System.out.println("----------------------------------------");
 				
-				for(int i = 0; i < numRecords; i++)
-					if(fileAllocationTable.get(i).getFileName() != null)
-						System.out.printf("%-15s%15d\n", fileAllocationTable.get(i).getFileName(), fileAllocationTable.get(i).getIndexBlock());
+				for(FileRecord fileRecord : records)
+					System.out.printf("%-15s%15d%10d\n", fileRecord.getFileName(), fileRecord.getIndexBlock(), fileRecord.getSize());
 				
 				break;
 			case CONTIGUOUS:
-				// Contiguous: File Name, Start Block, Length
-				System.out.println("----------------------------------------");
-				System.out.printf("%-15s%15s%10s\n", "File Name", "Start Block", "Length");
-				System.out.println("----------------------------------------");
+				// Contiguous: File Name, Start Block, Length, Size
+				System.out.println("--------------------------------------------------");
+				System.out.printf("%-15s%15s%10s%10s\n", "File Name", "Start Block", "Length", "Size");
+				System.out.println("--------------------------------------------------");
 				
-				for(int i = 0; i < numRecords; i++)
-					if(fileAllocationTable.get(i).getFileName() != null)
-						System.out.printf("%-15s%15d%10d\n", fileAllocationTable.get(i).getFileName(), fileAllocationTable.get(i).getStartBlock(), fileAllocationTable.get(i).getLength());
+				for(FileRecord fileRecord : records)
+					System.out.printf("%-15s%15d%10d%10d\n", fileRecord.getFileName(), fileRecord.getStartBlock(), fileRecord.getLength(), fileRecord.getSize());
 				
 				break;
 			}
@@ -324,7 +419,7 @@ public class DiskInterface {
 			
 			// Iterate the blocks and print.
 			for(int i = 0; i < NUM_BLOCKS; i++) {
-				System.out.print(i != 1 && disk.read(1, i) == 0 ? " " + 0 : " " + 1);
+				System.out.print(bitmap.isUsed(i) ? " " + 1 : " " + 0);
 				System.out.print(i + 1 < NUM_BLOCKS && (i + 1) % 32 == 0 ? " |\n" + String.format(fmtPfx, i) + "|" : "");
 			}
 			
@@ -342,7 +437,7 @@ public class DiskInterface {
 			
 			// Iterate the blocks and print.
 			for(int i = 0; i < NUM_BLOCKS; i++) {
-				System.out.print(i != 1 && disk.read(1, i) == 0 ? 0 : 1);
+				System.out.print(bitmap.isUsed(i) ? 1 : 0);
 				System.out.print(i + 1 < NUM_BLOCKS && (i + 1) % 32 == 0 ? "\n" : "");
 			}
 			
@@ -373,8 +468,8 @@ public class DiskInterface {
 					choice = Integer.parseInt(Project3.scanner.nextLine().trim());
 				
 				// Check for valid block choice.
-				if(choice > 1 && choice < NUM_BLOCKS) break;
-				else System.out.println("Invalid entry. Please enter a number from 2 to " + (NUM_BLOCKS - 1) + ".");
+				if(choice >= 0 && choice < NUM_BLOCKS) break;
+				else System.out.println("Invalid entry. Please enter a number from 0 to " + (NUM_BLOCKS - 1) + ".");
 			}
 			catch(Exception e) {System.out.println("Invalid entry. Please try again.");}
 			
@@ -454,11 +549,11 @@ public class DiskInterface {
 				}
 			}
 			
-			// Create the file out stream and write.
+			// Create the file out stream and copy the file a block at a time.
 			FileOutputStream stream = null;
 			try {
 				stream = new FileOutputStream(path);
-				stream.write(DiskInterfaceUtils.getFileBytesFromDisk(fileName));
+				DiskInterfaceUtils.openFile(fileName).transferTo(stream);
 			}
 			catch(FileNotFoundException e) {System.out.println("Somethign went wrong when setting up the stream. Please try again.");e.printStackTrace();}
 			catch(IOException e) {System.out.println("Somethign went wrong when writing the file. Please try again.");e.printStackTrace();}
@@ -518,7 +613,7 @@ public class DiskInterface {
 				newFileName = new String(fileName);
 				break;
 			}
-			else if(!newFileName.equalsIgnoreCase("") && newFileName.length() > 4 && newFileName.length() <= 8) break;
+			else if(!newFileName.equalsIgnoreCase("") && DiskInterfaceUtils.isValidFileName(newFileName)) break;
 			else System.out.println("Invalid file name. Please try again or type \'Exit\' to cancel.");
 		}
 		
@@ -539,34 +634,39 @@ public class DiskInterface {
 			}
 		}
 		
-		// Read in file bytes.
-		try {
-			byte[] fileContent = Files.readAllBytes(file.toPath());
-			
-			// Will the disk support the required file space?
-			int requiredBlocks = (fileContent.length > 0 ? fileContent.length / (type == AllocationType.CHAINED ? CHAINED_BLOCK_SIZE : BLOCK_SIZE) : 0);
-			if(requiredBlocks > 10) {
-				System.out.println("The file is too large. Please try again with a smaller file.");
-				return;
-			}
-			
-			// Write the file to the disk based on Allocation Type.
-			switch(type) {
-			case CHAINED:
-				DiskInterfaceUtils.writeChained(newFileName, fileContent, requiredBlocks);
-				break;
-			case INDEXED:
-				DiskInterfaceUtils.writeIndexed(newFileName, fileContent, requiredBlocks);
-				break;
-			case CONTIGUOUS:
-				DiskInterfaceUtils.writeContiguous(newFileName, fileContent, requiredBlocks);
-				break;
-			}
-			
-			// Sort the FAT after writing to disk.
-			DiskInterfaceUtils.sortFAT();
+		// Will the disk support the required file space?
+		int payloadSize = (type == AllocationType.CHAINED ? CHAINED_BLOCK_SIZE : BLOCK_SIZE);
+		int requiredBlocks = (int)Math.max(1, Math.min(Integer.MAX_VALUE, (file.length() + payloadSize - 1) / payloadSize));
+		if(type == AllocationType.INDEXED && requiredBlocks > IndexBlock.getMaxBlocks()) {
+			System.out.println("The file is too large. Please try again with a smaller file.");
+			System.out.print("Press Enter to continue");
+			Project3.scanner.nextLine();
+			return;
+		}
+		
+		// Make sure the disk has room for the file and its directory entry.
+		int metadataBlocks = (type == AllocationType.INDEXED ? 1 + IndexBlock.getIndirectBlockCount(requiredBlocks) : 0);
+		if(!DiskInterfaceUtils.hasFreeSpace(requiredBlocks + metadataBlocks)) {
+			System.out.println("There is not enough free space on the disk. Please delete a file and try again.");
+			System.out.print("Press Enter to continue");
+			Project3.scanner.nextLine();
+			return;
+		}
+		
+		// Stream the file to the disk a block at a time; blocks are taken as the data arrives.
+		DiskFileOutputStream stream = null;
+		try(FileInputStream in = new FileInputStream(file)) {
+			stream = DiskInterfaceUtils.createFile(newFileName, file.length());
+			in.transferTo(stream);
+			stream.close();
+		}
+		catch(IOException e) {
+			if(stream != null) stream.discard();
+			System.out.println(e.getMessage() + " The file was not copied.");
+			System.out.print("Press Enter to continue");
+			Project3.scanner.nextLine();
+			return;
 		}
-		catch (IOException e) {e.printStackTrace();}
 		
 		System.out.println("\nFile " + fileName + " copied");
 		System.out.print("Press Enter to continue");
@@ -594,14 +694,14 @@ public class DiskInterface {
 					
 					if(fileName.equalsIgnoreCase("Exit")) return;
 					
-					if(fileName.length() > 4 && fileName.length() <= 8) break;
+					if(DiskInterfaceUtils.isValidFileName(fileName)) break;
 					else System.out.println("Invalid entry. Please enter a valid file name. E.g. \"text.txt\".");
 				}
 				catch(Exception e) {System.out.println("Invalid entry. Please try again.");}
 			}
 			
-			// Confirm delete if the file have a valid index on the disk.
-			if(DiskInterfaceUtils.getFileRecordIndex(fileName) >= 0) {
+			// Confirm delete if the file has a record in the directory.
+			if(DiskInterfaceUtils.isValidFile(fileName)) {
 				System.out.print("\nAre you sure you want to delete " + fileName + " from the disk? [y/n]: ");
 				String temp = Project3.scanner.nextLine();
 				char answer = (temp.length() > 0 ? temp.charAt(0) : 0);
@@ -624,11 +724,405 @@ public class DiskInterface {
 		Project3.scanner.nextLine();
 	}
 	
+	/**
+	 * Rebuilds the free space bitmap from the directory and
+	 * scans the free blocks for content that is not owned by any file.
+	 * The user is prompted before any orphaned blocks are cleared.
+	 */
+	private void checkDisk() {
+		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		// Rebuild the bitmap from the allocation metadata.
+		int corrected = DiskInterfaceUtils.rebuildBitmap();
+		System.out.println("\nThe free space bitmap was rebuilt from the directory. " + corrected + " block(s) corrected.");
+		
+		// Look for data in blocks that no file owns.
+		ArrayList<Integer> orphans = DiskInterfaceUtils.findOrphanedBlocks();
+		if(orphans.size() > 0) {
+			System.out.println(orphans.size() + " free block(s) still hold data: " + orphans);
+			System.out.print("Clear the orphaned blocks? [y/n]: ");
+			String temp = Project3.scanner.nextLine();
+			char answer = (temp.length() > 0 ? temp.charAt(0) : 0);
+			if(answer == 'y' || answer == 'Y') {
+				DiskInterfaceUtils.clearOrphanedBlocks(orphans);
+				System.out.println("\nThe orphaned blocks have been cleared.");
+			}
+		}
+		else System.out.println("No orphaned blocks were found.");
+		
+		System.out.print("Press Enter to continue");
+		Project3.scanner.nextLine();
+	}
+	
+	/**
+	 * Shows how well the block cache has served the disk reads and writes.
+	 */
+	private void displayCacheStatistics() {
+		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		if(cache != null) System.out.println("\n" + cache);
+		else System.out.println("\nThe disk has no block cache.");
+		
+		System.out.print("Press Enter to continue");
+		Project3.scanner.nextLine();
+	}
+	
+	/**
+	 * Lets the user take, list, read and release read-only snapshots of
+	 * the disk. Snapshots last until they are released or the program
+	 * exits.
+	 */
+	private void manageSnapshots() {
+		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		String[] header = {"Manage the disk snapshots."};
+		String[] options = {
+				"Take a snapshot",
+				"List the snapshots",
+				"Copy a file from a snapshot to a file on the real system",
+				"Release a snapshot",
+				"Return to the main menu"};
+		
+		while(true) {
+			switch(DiskInterfaceUtils.optionChooser(header, options, 4)) {
+			case 1:
+				try {System.out.println("\n" + DiskInterfaceUtils.takeSnapshot() + ".");}
+				catch(IOException e) {System.out.println("Something went wrong when saving the disk.");e.printStackTrace();}
+				break;
+			case 2:
+				if(volume.getSnapshots().isEmpty()) System.out.println("\nThere are no snapshots.");
+				else System.out.println();
+				for(DiskSnapshot snapshot : volume.getSnapshots())
+					System.out.println(snapshot);
+				break;
+			case 3:
+				copyFromSnapshot();
+				break;
+			case 4:
+				DiskSnapshot snapshot = chooseSnapshot();
+				if(snapshot != null) {
+					snapshot.release();
+					System.out.println("Snapshot " + snapshot.getId() + " has been released.");
+				}
+				break;
+			case 5:
+				return;
+			}
+			
+			System.out.print("Press Enter to continue");
+			Project3.scanner.nextLine();
+		}
+	}
+	
+	/**
+	 * Prompts for a snapshot by number and returns it; otherwise
+	 * {@code null} if there is no such snapshot.
+	 * 
+	 * @return  The chosen {@code DiskSnapshot}; otherwise {@code null}.
+	 */
+	private DiskSnapshot chooseSnapshot() {
+		if(volume.getSnapshots().isEmpty()) {
+			System.out.println("\nThere are no snapshots.");
+			return null;
+		}
+		
+		System.out.print("\nSnapshot number: ");
+		String temp = Project3.scanner.nextLine().trim();
+		try {
+			int id = Integer.parseInt(temp);
+			for(DiskSnapshot snapshot : volume.getSnapshots())
+				if(snapshot.getId() == id) return snapshot;
+		}
+		catch(NumberFormatException e) {}
+		
+		System.out.println("There is no snapshot " + temp + ".");
+		return null;
+	}
+	
+	/**
+	 * Prompts for a snapshot and a file in it, and copies the file as it
+	 * was when the snapshot was taken to a file on the real system.
+	 */
+	private void copyFromSnapshot() {
+		DiskSnapshot snapshot = chooseSnapshot();
+		if(snapshot == null) return;
+		
+		System.out.print("Copy from: ");
+		String fileName = Project3.scanner.nextLine().trim();
+		DiskFileInputStream content = DiskInterfaceUtils.openFileInSnapshot(snapshot, fileName);
+		if(content == null) {
+			System.out.println(fileName + " was not on the disk when snapshot " + snapshot.getId() + " was taken.");
+			return;
+		}
+		
+		System.out.print("Copy to: ");
+		String newFileName = Project3.scanner.nextLine().trim();
+		if(newFileName.equals("")) newFileName = fileName;
+		
+		String path = Project3.class.getProtectionDomain().getCodeSource().getLocation().getPath() + "/" + newFileName;
+		try {path = URLDecoder.decode(path, "utf-8");}
+		catch(UnsupportedEncodingException e) {e.printStackTrace();}
+		
+		try(FileOutputStream stream = new FileOutputStream(new File(path).getPath())) {
+			content.transferTo(stream);
+			System.out.println("File successfully written to the local disk.");
+		}
+		catch(IOException e) {System.out.println("Something went wrong when writing the file. Please try again.");e.printStackTrace();}
+	}
+	
+	/**
+	 * Lets the user read or overwrite a range of the bytes of a file,
+	 * without going through the rest of the file.
+	 */
+	private void editFile() {
+		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		String[] header = {"Read or write part of a file."};
+		String[] options = {
+				"Display the bytes of a file from an offset",
+				"Overwrite the bytes of a file at an offset",
+				"Append text to the end of a file",
+				"Truncate a file to a length",
+				"Return to the main menu"};
+		
+		while(true) {
+			int choice = DiskInterfaceUtils.optionChooser(header, options, 4);
+			if(choice == 5) return;
+			
+			DiskFile file = chooseFile();
+			if(file != null) {
+				switch(choice) {
+				case 1:
+					displayFileRange(file);
+					break;
+				case 2:
+					overwriteFileRange(file);
+					break;
+				case 3:
+					appendToFile(file);
+					break;
+				case 4:
+					truncateFile(file);
+					break;
+				}
+			}
+			
+			System.out.print("Press Enter to continue");
+			Project3.scanner.nextLine();
+		}
+	}
+	
+	/**
+	 * Prompts for a file by name and opens it for reading and writing at
+	 * any offset; otherwise returns {@code null} if there is no such file.
+	 * 
+	 * @return  The {@code DiskFile} of the chosen file; otherwise {@code null}.
+	 */
+	private DiskFile chooseFile() {
+		if(DiskInterfaceUtils.getFAT() == 0) {
+			System.out.println("\nThere are no files on the disk.");
+			return null;
+		}
+		
+		System.out.print("\nName of file: ");
+		String fileName = Project3.scanner.nextLine().trim();
+		if(DiskInterfaceUtils.isValidFile(fileName)) return DiskInterfaceUtils.openDiskFile(fileName);
+		
+		System.out.println("There is no file " + fileName + " on the disk.");
+		return null;
+	}
+	
+	/**
+	 * Prompts for a number from 0 to the given maximum; otherwise returns -1
+	 * if the entry is not such a number.
+	 * 
+	 * @param   prompt
+	 *          A {@code String} value holding the prompt to show.
+	 * @param   max
+	 *          A {@code long} value representing the largest number allowed.
+	 * @return  A {@code long} value representing the number entered; otherwise -1.
+	 */
+	private long promptForNumber(String prompt, long max) {
+		System.out.print(prompt);
+		try {
+			long value = Long.parseLong(Project3.scanner.nextLine().trim());
+			if(value >= 0 && value <= max) return value;
+		}
+		catch(NumberFormatException e) {}
+		
+		System.out.println("Invalid entry. Please enter a number from 0 to " + max + ".");
+		return -1;
+	}
+	
+	/**
+	 * Prompts for an offset and a number of bytes, and shows those bytes of
+	 * the file in character format.
+	 * 
+	 * @param   file
+	 *          The {@code DiskFile} to read.
+	 */
+	private void displayFileRange(DiskFile file) {
+		long offset = promptForNumber("Offset (the file has " + file.getSize() + " bytes): ", file.getSize());
+		if(offset < 0) return;
+		long count = promptForNumber("Number of bytes: ", file.getSize() - offset);
+		if(count < 0) return;
+		
+		// Read a block at a time so a long range does not need a long buffer.
+		System.out.println("\nBytes " + offset + " to " + (offset + count) + " of " + file.getFileName() + ":");
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+		while(count > 0) {
+			buffer.clear().limit((int)Math.min(BLOCK_SIZE, count));
+			int read = file.read(offset, buffer);
+			if(read < 0) break;
+			
+			System.out.print(new String(buffer.array(), 0, read, StandardCharsets.ISO_8859_1));
+			offset += read;
+			count -= read;
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * Prompts for an offset and a line of text, and writes the text over
+	 * the bytes of the file from that offset.
+	 * 
+	 * @param   file
+	 *          The {@code DiskFile} to write.
+	 */
+	private void overwriteFileRange(DiskFile file) {
+		long offset = promptForNumber("Offset (the file has " + file.getSize() + " bytes): ", file.getSize());
+		if(offset < 0) return;
+		
+		System.out.print("New text: ");
+		byte[] text = Project3.scanner.nextLine().getBytes(StandardCharsets.ISO_8859_1);
+		
+		try {
+			int written = file.write(offset, ByteBuffer.wrap(text));
+			System.out.println(written + " byte(s) of " + file.getFileName() + " written from offset " + offset + ".");
+		}
+		catch(IOException e) {System.out.println(e.getMessage() + " Nothing was written.");}
+	}
+	
+	/**
+	 * Prompts for a line of text and adds it to the end of the file, filling
+	 * the last block of the file before taking any more.
+	 * 
+	 * @param   file
+	 *          The {@code DiskFile} to add to.
+	 */
+	private void appendToFile(DiskFile file) {
+		System.out.print("Text to add: ");
+		byte[] text = Project3.scanner.nextLine().getBytes(StandardCharsets.ISO_8859_1);
+		
+		try {
+			DiskInterfaceUtils.append(file.getFileName(), text);
+			System.out.println(text.length + " byte(s) added to " + file.getFileName() + ", which now has " + DiskInterfaceUtils.getFileRecord(file.getFileName()).getSize() + " bytes.");
+		}
+		catch(IOException e) {System.out.println(e.getMessage() + " Nothing was added.");}
+	}
+	
+	/**
+	 * Prompts for a new length and cuts the file down to it, freeing the
+	 * blocks past the new end.
+	 * 
+	 * @param   file
+	 *          The {@code DiskFile} to cut down.
+	 */
+	private void truncateFile(DiskFile file) {
+		long length = promptForNumber("New length (the file has " + file.getSize() + " bytes): ", file.getSize());
+		if(length < 0) return;
+		
+		DiskInterfaceUtils.truncate(file.getFileName(), length);
+		System.out.println(file.getFileName() + " now has " + length + " bytes.");
+	}
+	
+	/**
+	 * Lets the user export the blocks changed since a checkpoint to a
+	 * delta file, or apply delta files to the disk in order.
+	 */
+	private void manageDeltas() {
+		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		String[] header = {"Export or import disk changes."};
+		String[] options = {
+				"Export the changes since a checkpoint to a delta file",
+				"Apply delta files to the disk, oldest first",
+				"Return to the main menu"};
+		
+		switch(DiskInterfaceUtils.optionChooser(header, options, 4)) {
+		case 1:
+			int last = tracker.getGeneration() - 1;
+			System.out.print("\nExport the changes since checkpoint (0 for every written block" + (last > 0 ? ", the last is " + last : "") + "): ");
+			String temp = Project3.scanner.nextLine().trim();
+			System.out.print("Delta file: ");
+			String path = Project3.scanner.nextLine().trim();
+			
+			try {
+				DiskDelta delta = DiskInterfaceUtils.exportChanges(temp.length() > 0 ? Integer.parseInt(temp) : 0, new File(path));
+				System.out.println(delta + " written. The next export can start from checkpoint " + delta.getCheckpoint() + ".");
+			}
+			catch(NumberFormatException e) {System.out.println("Invalid entry. The checkpoint must be a number.");}
+			catch(IllegalArgumentException e) {System.out.println(e.getMessage());}
+			catch(IOException e) {System.out.println("Something went wrong when writing the delta file.");e.printStackTrace();}
+			break;
+		case 2:
+			System.out.print("\nDelta files, separated by spaces: ");
+			ArrayList<File> files = new ArrayList<File>();
+			for(String name : Project3.scanner.nextLine().trim().split("\\s+"))
+				if(name.length() > 0) files.add(new File(name));
+			
+			try {
+				for(DiskDelta delta : DiskInterfaceUtils.applyDeltas(files))
+					System.out.println(delta + " applied.");
+				System.out.println("The disk now holds " + DiskInterfaceUtils.getFAT() + " file(s).");
+			}
+			catch(IllegalArgumentException e) {System.out.println(e.getMessage());}
+			catch(IOException e) {System.out.println("Something went wrong when reading the delta files.");e.printStackTrace();}
+			break;
+		case 3:
+			return;
+		}
+		
+		System.out.print("Press Enter to continue");
+		Project3.scanner.nextLine();
+	}
+	
+	/**
+	 * Compacts a contiguous disk so that its free space forms one extent.
+	 * The user may limit the number of blocks moved in one pass.
+	 */
+	private void compactDisk() {
+		if(Project3.debugMode) System.out.println(getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		if(type == AllocationType.CONTIGUOUS) {
+			int maxBlocks = Integer.MAX_VALUE;
+			
+			// Prompt for an optional limit.
+			System.out.print("\nMaximum number of blocks to move (Enter for no limit): ");
+			String temp = Project3.scanner.nextLine().trim();
+			try {if(temp.length() > 0) maxBlocks = Math.max(1, Integer.parseInt(temp));}
+			catch(NumberFormatException e) {System.out.println("Invalid entry. No limit will be used.");}
+			
+			// Compact and print the results.
+			CompactionReport report = DiskInterfaceUtils.compact(maxBlocks);
+			System.out.println("\n" + report);
+		}
+		else System.out.println("\nOnly a contiguous disk can be compacted.");
+		
+		System.out.print("Press Enter to continue");
+		Project3.scanner.nextLine();
+	}
+	
 	/**
 	 * Prints the shutdown message and terminates the application.
 	 */
 	private void shutDown() {
 		System.out.println("\nDisk is shutting down.");
+		
+		// Write back everything that has not been saved yet.
+		try {DiskInterfaceUtils.closeDisk();}
+		catch(IOException e) {System.out.println("Something went wrong when saving the disk.");e.printStackTrace();}
+		
 		System.exit(0);
 	}
 }
@@ -1,6 +1,11 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 
 
 /**
@@ -16,73 +21,67 @@ public class DiskInterfaceUtils extends DiskInterface {
 	 * @param   type
 	 * 	        A disk {@code AllocationType}.
 	 * @throws  Exception 
-	 *          If the {@code BLOCK_SIZE} is less than the
-	 *          {@code NUM_BLOCKS}.
+	 *          If the disk geometry is not valid.
 	 * @see     DiskInterface
 	 * @see     AllocationType
 	 */
 	public DiskInterfaceUtils(AllocationType type) throws Exception {
 		super(type);
 	}
-
+	
 	/**
-	 * Returns {@code true} if the file is in the file allocation table; otherwise
+	 * Returns {@code true} if the file is in the directory; otherwise
 	 * {@code false}.
 	 * 
 	 * @param   fileName
 	 *          A {@code String} value for the name of the file.
-	 * @return  Returns {@code true} if the file is in the file allocation table;
-	 *          otherwise {@code false}.
+	 * @return  Returns {@code true} if the file is in the directory; otherwise
+	 *          {@code false}.
 	 */
 	protected static boolean isValidFile(String fileName) {
-		getFAT();
-		for(int i = 0; i < fileAllocationTable.size(); i++)
-			if(fileName.trim().equalsIgnoreCase(fileAllocationTable.get(i).getFileName().trim())) return true;
-		return false;
+		return fileRecords.containsKey(normalizeFileName(fileName));
+	}
+	
+	/**
+	 * Returns {@code true} if the given name can be stored in the directory:
+	 * a name and type of more than four characters that fits in a directory
+	 * entry; otherwise {@code false}.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value for the name of the file.
+	 * @return  Returns {@code true} if the name can be stored; otherwise
+	 *          {@code false}.
+	 */
+	protected static boolean isValidFileName(String fileName) {
+		return fileName.length() > 4 && fileName.getBytes(StandardCharsets.UTF_8).length <= DirectoryTree.MAX_NAME_LENGTH;
 	}
 	
 	/**
-	 * Updates the local copy of the file allocation table and returns the
-	 * number of contained files.
+	 * Returns the number of files in the directory. The name index is kept
+	 * up to date by every change to the directory, so the disk is not read.
 	 * 
 	 * @return  Returns an {@code int} value representing the number of files
-	 *          recorded in the file allocation table.
+	 *          recorded in the directory.
 	 */
 	protected static int getFAT() {
+		return fileRecords.size();
+	}
+	
+	/**
+	 * Walks the directory tree on the disk and indexes its records by name.
+	 * This is only needed when the disk is mounted.
+	 * 
+	 * @return  Returns an {@code int} value representing the number of files
+	 *          recorded in the directory.
+	 */
+	protected static int loadFAT() {
 		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
-		int numRecords = 0;
-		
-		// Get the number of stored files.
-		for(int i = 0; i < BLOCK_SIZE; i += recordSize)
-			if(disk.read(0, i) != 0) numRecords++;
-		
-		// Create a new, emply table for the file data.
-		fileAllocationTable.clear();
-		
-		// Iterate through the records to add them to the table.
-		for(int i = 0; i < maxRecords; i++) {
-			if(Project3.debugMode) System.out.println("Reading from block " + i + ", byte starting at " + i * recordSize + ".");
-			
-			// Iterate by record size.
-			int startByte = i * recordSize;
-			
-			// Check for non-null byte in the first record byte index.
-			if(disk.read(0, startByte) != (byte) 0) {
-				// Get/Store the file name.
-				byte[] tempName = new byte[8];
-				for(int j = 0; j < 8; j++) {
-					if(disk.read(0, startByte + j) == 0) break;
-					tempName[j] = disk.read(0, startByte + j);
-					if(Project3.debugMode) System.out.println("0: " + disk.read(0, startByte + j));
-				}
-				
-				if(new String(tempName).trim().equals("")) break;
-				fileAllocationTable.add(new FileRecord(new String(tempName), Byte.toUnsignedInt(disk.read(0, startByte + 8)), Byte.toUnsignedInt(disk.read(0, startByte + 9))));
-			}
-		}
+		fileRecords.clear();
+		for(FileRecord fileRecord : directory.list())
+			fileRecords.put(normalizeFileName(fileRecord.getFileName()), fileRecord);
 		
-		return numRecords;
+		return fileRecords.size();
 	}
 	
 	/**
@@ -97,265 +96,273 @@ public class DiskInterfaceUtils extends DiskInterface {
 	 * @see     FileRecord
 	 */
 	protected static FileRecord getFileRecord(String fileName) {
-		// Update the FAT.
-		getFAT();
-		
-		FileRecord fileRecord = null;
-		
-		for(FileRecord f : fileAllocationTable) {
-			if(fileName.trim().equalsIgnoreCase(f.getFileName().trim())) {
-				fileRecord = new FileRecord(f);
-				break;
-			}
-		}
-		
-		return fileRecord;
+		return fileRecords.get(normalizeFileName(fileName));
 	}
 	
 	/**
-	 * Returns an {@code int} value representing the disk index if the file is
-	 * located by the given file name; otherwise -1.
+	 * Returns {@code true} if the disk has the given number of free blocks
+	 * left over after the directory has room to grow by one record;
+	 * otherwise {@code false}.
 	 * 
-	 * @param   fileName
-	 *          A {@code String} value representing the name of the file to
-	 *          locate.
-	 * @return  Returns an {@code int} value representing the disk index if the
-	 *          file is located by the given file name; otherwise -1.
+	 * @param   blocks
+	 *          An {@code int} value representing the number of blocks needed for
+	 *          the file.
+	 * @return  Returns {@code true} if there is room for the file; otherwise
+	 *          {@code false}.
 	 */
-	protected static int getFileRecordIndex(String fileName) {
-		// Iterate the FAT to locate the named record. Return the index of the record.
-		for(int i = 0; i < fileAllocationTable.size(); i++)
-			if(fileName.equalsIgnoreCase(fileAllocationTable.get(i).getFileName().trim()))
-				return i;
-		return -1;
+	protected static boolean hasFreeSpace(int blocks) {
+		return bitmap.getNumFree() >= blocks + directory.getHeight() + 1;
 	}
 	
 	/**
-	 * Writes the content of the given file content as a byte[] to the
-	 * disk using the chained disk allocation type. After the content has
-	 * been written, the file allocation table is updated with the file
-	 * name, starting block index, and block length.
+	 * Returns the key used to index a file name: the name without
+	 * surrounding whitespace or padding, in lower case.
 	 * 
 	 * @param   fileName
 	 *          A {@code String} value representing the name of the file.
-	 * @param   fileContent
-	 *          A {@code byte[]} object containing the original file content to be
-	 *          stored.
-	 * @param   requiredBlocks
-	 *          An {@code int} value representing the required number of blocks to
-	 *          store the given file for preallocation.
-	 */
-	protected static void writeChained(String fileName, byte[] fileContent, int requiredBlocks) {
-		// Make sure there is space available.
-		if(getNumFreeBlocks() >= requiredBlocks) {
-			// Get a random starting block.
-			int startBlock = getRandomBlock();
-			int block = startBlock;
-			int blocksWritten = 0;
-			ArrayList<Integer> usedBlocks = new ArrayList<Integer>();
-			usedBlocks.add(startBlock);
-			
-			// Add the first block to the file space bitmap.
-			disk.write(1, startBlock, (byte) 1);
-			
-			// Iterate the file to write.
-			for(int i = 0; i < fileContent.length; i++) {
-				if(Project3.debugMode) System.out.println(i + ": " + block);
-				
-				if(i > 0 && i % CHAINED_BLOCK_SIZE == 0) {
-					block = getRandomBlock();
-					usedBlocks.add(block);
-					blocksWritten++;
-					disk.write(block, i - (blocksWritten * CHAINED_BLOCK_SIZE), fileContent[i]);
-				}
-				else
-					disk.write(block, i - (blocksWritten * CHAINED_BLOCK_SIZE), fileContent[i]);
-			}
-			
-			if(Project3.debugMode) for(int i : usedBlocks) System.out.println("Block Used: " + i);
-			
-			// Add the chain links and update the file bitmap.
-			for(int i = 1; i < usedBlocks.size(); i++) {
-				if(Project3.debugMode) System.out.println("Used Block: " + i);
-				disk.write(usedBlocks.get(i - 1), CHAINED_BLOCK_SIZE, (byte) ((int)usedBlocks.get(i)));
-				disk.write(1, usedBlocks.get(i), (byte) 1);
-			}
-			
-			// Update the FAT.
-			writeFileToFAT(fileName, startBlock, requiredBlocks);
-		}
+	 * @return  A {@code String} value representing the normalized file name.
+	 */
+	private static String normalizeFileName(String fileName) {
+		return fileName.trim().toLowerCase();
 	}
 	
 	/**
-	 * Writes the content of the given file content as a byte[] to the
-	 * disk using the indexed disk allocation type. After the content has
-	 * been written, the file allocation table is updated with the file
-	 * name and index block.
+	 * Adds a record to the directory on the disk and to the name index.
 	 * 
-	 * @param   fileName
-	 *          A {@code String} value representing the name of the file.
-	 * @param   fileContent
-	 *          A {@code byte[]} object containing the original file content to be
-	 *          stored.
-	 * @param   requiredBlocks
-	 *          An {@code int} value representing the required number of blocks to
-	 *          store the given file for preallocation.
-	 */
-	protected static void writeIndexed(String fileName, byte[] fileContent, int requiredBlocks) {
-		// Make sure there is space available.
-		if(getNumFreeBlocks() >= requiredBlocks) {
-			ArrayList<Integer> usedBlocks = new ArrayList<Integer>();
-			
-			// Get a random index block.
-			int indexBlock = getRandomBlock();
-			
-			// Update the bitmap for the index block. 
-			disk.write(1, indexBlock, (byte)1);
-			
-			// Get a random starting block and verify the block hasn't been used.
-			int startBlock = getRandomBlock();
-			usedBlocks.add(startBlock);
-			int block = startBlock;
-			int blocksWritten = 0;
-			
-			// Iterate the file to write.
-			for(int i = 0; i < fileContent.length; i++) {
-				if(Project3.debugMode) System.out.println(i + ": " + block);
-				
-				if(i > 0 && i % BLOCK_SIZE == 0) {
-					block = getRandomBlock();
-					usedBlocks.add(block);
-					blocksWritten++;
-					disk.write(block, i - (blocksWritten * BLOCK_SIZE), fileContent[i]);
-				}
-				else
-					disk.write(block, i - (blocksWritten * BLOCK_SIZE), fileContent[i]);
-			}
-			
-			// Add the index block and update the file bitmap.
-			for(int i = 0; i < usedBlocks.size(); i++) {
-				if(Project3.debugMode) System.out.println("Used Block: " + i);
-				disk.write(indexBlock, i, (byte) ((int)usedBlocks.get(i)));
-				disk.write(1, usedBlocks.get(i), (byte) 1);
-			}
-			
-			writeFileToFAT(fileName, indexBlock, requiredBlocks);
-		}
+	 * @param   fileRecord
+	 *          The {@code FileRecord} to add.
+	 */
+	private static void addFileRecord(FileRecord fileRecord) {
+		directory.insert(fileRecord);
+		fileRecords.put(normalizeFileName(fileRecord.getFileName()), fileRecord);
+	}
+	
+	/**
+	 * Replaces the record of the same name in the directory on the disk and
+	 * in the name index.
+	 * 
+	 * @param   fileRecord
+	 *          The new {@code FileRecord}.
+	 */
+	private static void replaceFileRecord(FileRecord fileRecord) {
+		directory.update(fileRecord);
+		fileRecords.put(normalizeFileName(fileRecord.getFileName()), fileRecord);
 	}
 	
 	/**
-	 * Writes the content of the given file content as a byte[] to the
-	 * disk using the contiguous disk allocation type. After the content
-	 * has been written, the file allocation table is updated with the
-	 * file name, starting block index, and block length.
+	 * Removes a record from the directory on the disk and from the name
+	 * index.
 	 * 
 	 * @param   fileName
 	 *          A {@code String} value representing the name of the file.
-	 * @param   fileContent
-	 *          A {@code byte[]} object containing the original file content to be
-	 *          stored.
-	 * @param   requiredBlocks
-	 *          An {@code int} value representing the required number of blocks to
-	 *          store the given file for preallocation.
-	 */
-	protected static void writeContiguous(String fileName, byte[] fileContent, int requiredBlocks) {
-		// Make sure there is space available.
-		int startBlock = getNextContigSpace(requiredBlocks);
-		if(startBlock >= 2) {
-			int block = startBlock;
-			disk.write(1, startBlock, (byte) 1);
-			int blocksWritten = 0;
-			
-			// Iterate the file to write.
-			for(int i = 0; i < fileContent.length; i++) {
-				if(Project3.debugMode) System.out.println(i + ": " + block);
-				
-				if(i > 0 && i % BLOCK_SIZE == 0) {
-					block++;
-					disk.write(1, block, (byte) 1);
-					blocksWritten++;
-					disk.write(block, i - (blocksWritten * BLOCK_SIZE), fileContent[i]);
-				}
-				else
-					disk.write(block, i - (blocksWritten * BLOCK_SIZE), fileContent[i]);
-			}
-			
-			// Update the file bitmap.
-			for(int i = startBlock; i < startBlock + requiredBlocks; i++) {
-				if(Project3.debugMode) System.out.println("Used Block: " + i);
-				disk.write(1, i, (byte) 1);
-			}
-			
-			writeFileToFAT(fileName, startBlock, requiredBlocks);
+	 */
+	private static void removeFileRecord(String fileName) {
+		directory.delete(fileName);
+		fileRecords.remove(normalizeFileName(fileName));
+	}
+	
+	/**
+	 * Takes the highest free block for a directory node, keeping the low
+	 * blocks together for file data. Returns -1 if the disk is full.
+	 * 
+	 * @return  An {@code int} value representing the index of the block;
+	 *          otherwise -1.
+	 */
+	protected static int allocateMetadataBlock() {
+		int block = bitmap.previousClearBit(NUM_BLOCKS - 1);
+		if(block < FIRST_DATA_BLOCK) return -1;
+		
+		bitmap.setUsed(block);
+		return block;
+	}
+	
+	/**
+	 * Clears a directory node block and returns it to the free space.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	protected static void freeMetadataBlock(int block) {
+		freeBlock(block);
+	}
+	
+	/**
+	 * Reads a block pointer of {@code POINTER_SIZE} bytes, high byte first.
+	 * 
+	 * @param   data
+	 *          A {@code byte[]} holding the pointer.
+	 * @param   offset
+	 *          An {@code int} value representing the first byte of the pointer.
+	 * @return  An {@code int} value representing the pointer.
+	 */
+	protected static int getPointer(byte[] data, int offset) {
+		int value = 0;
+		for(int i = 0; i < POINTER_SIZE; i++)
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		return value;
+	}
+	
+	/**
+	 * Writes a block pointer of {@code POINTER_SIZE} bytes, high byte first.
+	 * 
+	 * @param   data
+	 *          A {@code byte[]} to hold the pointer.
+	 * @param   offset
+	 *          An {@code int} value representing the first byte of the pointer.
+	 * @param   value
+	 *          An {@code int} value representing the pointer.
+	 */
+	protected static void putPointer(byte[] data, int offset, int value) {
+		for(int i = POINTER_SIZE - 1; i >= 0; i--) {
+			data[offset + i] = (byte)value;
+			value >>>= 8;
 		}
 	}
 	
 	/**
-	 * Updates the file allocation table and the free space bitmap once
-	 * the file content has been written to the disk.
+	 * Returns the next block of a chain, stored in the last
+	 * {@code POINTER_SIZE} bytes of the given block or, on a disk with a
+	 * chain table, in the table.
 	 * 
-	 * @param   fileName
-	 *          A {@code String} value representing the name of the file.
 	 * @param   block
-	 *          An {@code int} value representing the starting block or index
-	 *          block location on the disk.
-	 * @param   length
-	 *          An {@code int} value representing the required number of blocks to
-	 *          store the given file for preallocation.
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  An {@code int} value representing the next block in the chain.
 	 */
-	private static void writeFileToFAT(String fileName, int block, int length) {
-		int currRecords = DiskInterfaceUtils.getFAT();
+	protected static int readChainLink(int block) {
+		return readChainLink(disk, block);
+	}
+	
+	/**
+	 * Returns the next block of a chain on the given device. The chain
+	 * table of the disk itself is held in memory; a snapshot reads the
+	 * table as it was.
+	 * 
+	 * @param   device
+	 *          The {@code BlockDevice} holding the chain.
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  An {@code int} value representing the next block in the chain.
+	 */
+	protected static int readChainLink(BlockDevice device, int block) {
+		if(chainTable != null) return (device == disk ? chainTable.getNext(block) : ChainTable.readNext(device, superblock.getTableStart(), block));
 		
-		// Convert the file name String to bytes and write them to the FAT.
-		for(int i = 0; i < fileName.length(); i++)
-			disk.write(0, (currRecords * recordSize) + i, fileName.getBytes()[i]);
+		byte[] link = new byte[POINTER_SIZE];
+		device.read(block, CHAINED_BLOCK_SIZE, link, 0, POINTER_SIZE);
+		return getPointer(link, 0);
+	}
+	
+	/**
+	 * Sets the next block of a chain, in the chain table if the disk has
+	 * one; otherwise in the last {@code POINTER_SIZE} bytes of the block.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   next
+	 *          An {@code int} value representing the next block, or 0 to end
+	 *          the chain.
+	 */
+	private static void writeChainLink(int block, int next) {
+		if(chainTable != null) {
+			chainTable.setNext(block, next);
+			return;
+		}
 		
-		// Write the strating/index block to the FAT.
-		disk.write(0, (currRecords * recordSize) + 8, (byte)block);
+		byte[] link = new byte[POINTER_SIZE];
+		putPointer(link, 0, next);
+		disk.write(block, CHAINED_BLOCK_SIZE, link, 0, POINTER_SIZE);
+	}
+	
+	/**
+	 * Returns a handle for reading and writing the given file at any
+	 * offset.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @return  A {@code DiskFile} over the file on the disk.
+	 */
+	protected static DiskFile openDiskFile(String fileName) {
+		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
-		// Store the number of blocks to the FAT.
-		if(type != AllocationType.INDEXED) disk.write(0, (currRecords * recordSize) + 9, (byte)length);
+		return new DiskFile(disk, DiskInterfaceUtils.getFileRecord(fileName));
+	}
+	
+	/**
+	 * Returns a stream that writes a new file of the given name to the
+	 * disk, taking blocks as the data arrives. The file is added to the
+	 * directory when the stream is closed.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @param   expectedSize
+	 *          A {@code long} value representing the number of bytes expected,
+	 *          used to place a contiguous file, or 0 if it is not known.
+	 * @return  A {@code DiskFileOutputStream} writing the file to the disk.
+	 * @throws  IOException
+	 *          If the disk has no free block for the file.
+	 */
+	protected static DiskFileOutputStream createFile(String fileName, long expectedSize) throws IOException {
+		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
-		// Update the File System Bitmap.
-		updateBitmap();
+		return new DiskFileOutputStream(fileName, expectedSize);
 	}
 	
 	/**
-	 * A utility function used to quickly get the number of empty blocks
-	 * on the disk.
+	 * Takes a uniformly random free block for file data. Returns -1 if the
+	 * disk is full.
 	 * 
-	 * @return  An {@code int} value representing the number of empty blocks on
-	 *          the disk.
+	 * @return  An {@code int} value representing the index of the block;
+	 *          otherwise -1.
 	 */
-	private static int getNumFreeBlocks() {
-		int freeBlocks = 0;
-		for(int i = 2; i < NUM_BLOCKS; i++) {
-			if(isBlockEmpty(i)) freeBlocks++;
-		}
-		return freeBlocks;
+	protected static int allocateBlock() {
+		int[] blocks = bitmap.allocateRandom(1);
+		return (blocks != null ? blocks[0] : -1);
 	}
 	
 	/**
-	 * A utility function used to quickly get an empty block from the disk.
+	 * Takes the given block for file data if it is a free data block.
 	 * 
-	 * @return  An {@code int} value representing the index of the empty block.
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the block was free and is now used;
+	 *          otherwise {@code false}.
 	 */
-	private static int getRandomBlock() {
-		if(getNumFreeBlocks() <= 0) return -1;
+	protected static boolean allocateBlock(int block) {
+		if(block < FIRST_DATA_BLOCK || block >= NUM_BLOCKS || bitmap.isUsed(block)) return false;
 		
-		int block = -1;
-		while(true) {
-			block = (int)(Math.random() * (NUM_BLOCKS - 2) + 2);
-			if(isBlockEmpty(block)) break;
-		}
-		return block;
+		bitmap.setUsed(block);
+		return true;
 	}
 	
 	/**
-	 * A utility function used to quickly get the next available
-	 * contiguous space that is empty and large enough to store the
-	 * specified number of needed blocks. Returns the index of the first
-	 * block of the contiguous space; otherwise -1.
+	 * Updates the directory and the free space bitmap once the file
+	 * content has been written to the disk.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @param   block
+	 *          An {@code int} value representing the starting block or index
+	 *          block location on the disk.
+	 * @param   length
+	 *          An {@code int} value representing the number of blocks that store
+	 *          the file.
+	 * @param   size
+	 *          A {@code long} value representing the number of bytes in the file.
+	 */
+	protected static void writeFileToFAT(String fileName, int block, int length, long size) {
+		beginTransaction();
+		
+		// Add the record to the directory.
+		addFileRecord(type == AllocationType.INDEXED ? new FileRecord(fileName, block, size) : new FileRecord(fileName, block, length, size));
+		
+		// Update the File System Bitmap.
+		commitTransaction();
+	}
+	
+	/**
+	 * A utility function used to quickly get an available contiguous
+	 * space that is empty and large enough to store the specified number
+	 * of needed blocks, chosen by the disk {@code FitPolicy}. Returns the
+	 * index of the first block of the contiguous space; otherwise -1.
 	 * 
 	 * @param   needed
 	 *          An {@code int} value representing the necessary number of empty,
@@ -363,50 +370,56 @@ public class DiskInterfaceUtils extends DiskInterface {
 	 * @return  An {@code int} value representing the index of the first block of
 	 *          the contiguous space; otherwise -1.
 	 */
-	private static int getNextContigSpace(int needed) {
-		int freeBlocks = 0;
-		for(int i = 2; i < NUM_BLOCKS - 1; i++) {
-			if(isBlockEmpty(i)) {
-				if(freeBlocks == 0) freeBlocks++;
-				if(isBlockEmpty(i + 1)) freeBlocks++;
-				else freeBlocks = 0;
-				if(freeBlocks >= needed) return i - freeBlocks + 2;
-			}
-		}
-		return -1;
+	protected static int getNextContigSpace(int needed) {
+		return bitmap.findExtent(needed, fitPolicy);
 	}
 	
 	/**
-	 * Checks the given block by index and returns {@code true} if it is empty;
-	 * otherwise {@code false}.
+	 * Returns a stream over the contents of the given file that reads the
+	 * disk one block at a time.
 	 * 
-	 * @param   block
-	 *          An {@code int} value representing the block index on the disk to
-	 *          check.
-	 * @return  Returns {@code true} if the given block by index is empty;
-	 *          otherwise {@code false}.
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @return  A {@code DiskFileInputStream} over the contents of the file on
+	 *          the disk.
 	 */
-	private static boolean isBlockEmpty(int block) {
-		for(int i = 0; i < BLOCK_SIZE; i++)
-			if(disk.read(block, i) != 0) return false;
-		return true;
+	protected static DiskFileInputStream openFile(String fileName) {
+		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		// Get file info from FAT.
+		return new DiskFileInputStream(disk, DiskInterfaceUtils.getFileRecord(fileName));
+	}
+	
+	/**
+	 * Returns a stream over the contents of the given file in a snapshot,
+	 * or {@code null} if the file was not in the directory when the
+	 * snapshot was taken.
+	 * 
+	 * @param   snapshot
+	 *          The {@code DiskSnapshot} to read.
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @return  A {@code DiskFileInputStream} over the contents of the file in
+	 *          the snapshot; otherwise {@code null}.
+	 */
+	protected static DiskFileInputStream openFileInSnapshot(DiskSnapshot snapshot, String fileName) {
+		FileRecord fileRecord = new DirectoryTree(snapshot, superblock.getRootBlock()).search(fileName);
+		return (fileRecord != null ? new DiskFileInputStream(snapshot, fileRecord) : null);
 	}
 	
 	/**
-	 * Returns the contents of the given file as a {@code byte[]}.
+	 * Deletes the contents of the given file from the disk.
 	 * 
 	 * @param   fileName
 	 *          A {@code String} value representing the name of the file.
-	 * @return  A {@code byte[]} containing the contents of the file on the disk.
 	 */
-	protected static byte[] getFileBytesFromDisk(String fileName) {
+	protected static void deleteFile(String fileName) {
 		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
-		ArrayList<Byte> fileContent = new ArrayList<Byte>();
-		
 		// Get file info from FAT.
 		FileRecord fileRecord = DiskInterfaceUtils.getFileRecord(fileName);
 		int block = 0, length = 0;
+		beginTransaction();
 		
 		// Get file bytes based on allocation type.
 		switch(type) {
@@ -415,17 +428,25 @@ public class DiskInterfaceUtils extends DiskInterface {
 			block = fileRecord.getStartBlock();
 			length = fileRecord.getLength();
 			
-			// Chained: Random free block. Last bit points to next free block.
+			// Chained: Random free block. Last bit points to next free block. Allow for consolidation.
 			while(true) {
 				if(length > 1) {
-					for(int i = 0; i < CHAINED_BLOCK_SIZE; i++)
-						fileContent.add(disk.read(block, i));
+					// Save the next block location.
+					int nextBlock = readChainLink(block);
+					
+					// Clear the contents of the current block.
+					freeBlock(block);
+					
+					// Decrement chain length.
 					length--;
-					block = (disk.read(block, CHAINED_BLOCK_SIZE) & 0xFF);
+					
+					// Move to the next chained block.
+					block = nextBlock;
 				}
 				else {
-					for(int i = 0; i < BLOCK_SIZE; i++)
-						fileContent.add(disk.read(block, i));
+					// Clear the contents of the current block.
+					freeBlock(block);
+					
 					break;
 				}
 			}
@@ -434,30 +455,14 @@ public class DiskInterfaceUtils extends DiskInterface {
 		case INDEXED:
 			// FAT Indexed: File Name, Index Block
 			block = fileRecord.getIndexBlock();
+			IndexBlock index = new IndexBlock(disk, block);
 			
-			// Get indexes from index block.
-			ArrayList<Integer> indexes = new ArrayList<Integer>();
-			for(int i = 0; i < 10; i++) {
-				if(disk.read(block, i) == 0) break;
-				indexes.add(Byte.toUnsignedInt(disk.read(block, i)));
-				length++;
-			}
-			
-			// Indexed: Random Free block to store an ordered list of other random free blocks holding the file.
-			while(true) {
-				block = indexes.remove(0);
-				
-				if(length > 1) {
-					for(int i = 0; i < BLOCK_SIZE; i++)
-						fileContent.add(disk.read(block, i));
-					length--;
-				}
-				else {
-					for(int i = 0; i < BLOCK_SIZE ; i++)
-						fileContent.add(disk.read(block, i));
-					break;
-				}
-			}
+			// Clear the data blocks, the indirect blocks and then the index block.
+			for(int dataBlock : index.getBlocks())
+				freeBlock(dataBlock);
+			for(int indirectBlock : index.getIndirectBlocks())
+				freeBlock(indirectBlock);
+			freeBlock(block);
 			
 			break;
 		case CONTIGUOUS:
@@ -465,267 +470,575 @@ public class DiskInterfaceUtils extends DiskInterface {
 			block = fileRecord.getStartBlock();
 			length = fileRecord.getLength();
 			
-			// Contiguous: First available set of blocks large enough.
-			while(true) {
-				if(length > 1) {
-					for(int i = 0; i < BLOCK_SIZE; i++)
-						fileContent.add(disk.read(block, i));
-					block++;
-					length--;
+			// Contiguous: First available set of blocks large enough. Allow for compaction.
+			for(int i = 0; i < length; i++)
+				freeBlock(block + i);
+			
+			break;
+		}
+		
+		// Remove the file from the directory.
+		removeFileRecord(fileName);
+		
+		// Update the File System Bitmap.
+		commitTransaction();
+	}
+	
+	/**
+	 * Adds the given bytes to the end of a file without rewriting it. The
+	 * bytes fill the rest of the last block first. A chained file then links
+	 * free blocks onto its chain and an indexed file lists them in its index
+	 * block. A contiguous file takes the blocks after its end, and only moves
+	 * to a free extent, compacting the disk if need be, when they are in use.
+	 * 
+	 * @param   fileName
+	 *          A {@code String} value representing the name of the file.
+	 * @param   bytes
+	 *          A {@code byte[]} holding the bytes to add.
+	 * @throws  IOException
+	 *          If the disk has too little free space for the bytes, or an index
+	 *          block has no room for the blocks.
+	 */
+	protected static void append(String fileName, byte[] bytes) throws IOException {
+		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
+		
+		// Get file info from FAT.
+		FileRecord fileRecord = DiskInterfaceUtils.getFileRecord(fileName);
+		int payload = (type == AllocationType.CHAINED ? CHAINED_BLOCK_SIZE : BLOCK_SIZE);
+		long size = fileRecord.getSize() + bytes.length;
+		IndexBlock index = (type == AllocationType.INDEXED ? new IndexBlock(disk, fileRecord.getIndexBlock()) : null);
+		int length = (index != null ? index.getNumBlocks() : fileRecord.getLength());
+		
+		// Make sure the disk has room for the blocks the bytes spill into.
+		long needed = (size + payload - 1) / payload;
+		if(index != null && needed > IndexBlock.getMaxBlocks()) throw new IOException("The file is too large for an index block.");
+		int added = (int)Math.max(0, Math.min(Integer.MAX_VALUE, needed) - length);
+		int metadataBlocks = (index != null ? IndexBlock.getIndirectBlockCount(length + added) - IndexBlock.getIndirectBlockCount(length) : 0);
+		if(!hasFreeSpace(added + metadataBlocks)) throw new IOException("There is not enough free space on the disk.");
+		
+		// Take the new blocks. The first entry is the last block of the file, or -1 if it has none.
+		int[] blocks = new int[added + 1];
+		int start = fileRecord.getStartBlock(), moved = -1;
+		switch(type) {
+		case CHAINED:
+			blocks[0] = start;
+			for(int i = 1; i < length; i++)
+				blocks[0] = readChainLink(blocks[0]);
+			for(int i = 1; i <= added; i++)
+				blocks[i] = allocateBlock();
+			break;
+		case INDEXED:
+			blocks[0] = (length > 0 ? index.getBlock(length - 1) : -1);
+			for(int i = 1; i <= added; i++)
+				index.append(blocks[i] = allocateBlock());
+			break;
+		case CONTIGUOUS:
+			// Move the file if the blocks after it are in use, compacting first if the free space is only too fragmented.
+			if(!isExtentFree(start + length, added)) {
+				int target = getNextContigSpace(length + added);
+				if(target < 0 && hasFreeSpace(length + added)) {
+					compact(Integer.MAX_VALUE);
+					start = DiskInterfaceUtils.getFileRecord(fileName).getStartBlock();
+					target = (isExtentFree(start + length, added) ? start : getNextContigSpace(length + added));
 				}
-				else {
-					for(int i = 0; i < BLOCK_SIZE ; i++)
-						fileContent.add(disk.read(block, i));
-					break;
+				if(target < 0) throw new IOException("There is not enough contiguous free space on the disk.");
+				
+				if(target != start) {
+					byte[] data = new byte[BLOCK_SIZE];
+					for(int i = 0; i < length; i++) {
+						disk.readBlock(start + i, data);
+						disk.writeBlock(target + i, data);
+						allocateBlock(target + i);
+					}
+					moved = start;
+					start = target;
 				}
 			}
-			
+			blocks[0] = start + length - 1;
+			for(int i = 1; i <= added; i++)
+				allocateBlock(blocks[i] = start + length - 1 + i);
 			break;
 		}
 		
-		// Remove all trailing null values from the block.
-		for(int i = fileContent.size() - 1; i >= 0; i--) {
-			if(fileContent.get(i) == 0) fileContent.remove(i);
-			else break;
+		// Fill the rest of the last block, then write each new block once, with its link if the disk keeps links inline.
+		int room = (int)((long)length * payload - fileRecord.getSize());
+		int offset = Math.min(room, bytes.length);
+		if(offset > 0) disk.write(blocks[0], payload - room, bytes, 0, offset);
+		
+		byte[] data = new byte[BLOCK_SIZE];
+		for(int i = 1; i <= added; i++) {
+			int count = Math.min(payload, bytes.length - offset);
+			System.arraycopy(bytes, offset, data, 0, count);
+			Arrays.fill(data, count, BLOCK_SIZE, (byte) 0);
+			
+			if(type == AllocationType.CHAINED) {
+				int next = (i < added ? blocks[i + 1] : 0);
+				if(chainTable != null) chainTable.setNext(blocks[i], next);
+				else putPointer(data, payload, next);
+			}
+			disk.writeBlock(blocks[i], data);
+			offset += count;
 		}
 		
-		// Convert the content to a byte[].
-		byte[] tempFileContent = new byte[fileContent.size()];
-		for(int i = 0; i < fileContent.size(); i++) tempFileContent[i] = fileContent.get(i);
+		// Join the new blocks to the file and record its new size together.
+		beginTransaction();
+		switch(type) {
+		case CHAINED:
+			if(added > 0) writeChainLink(blocks[0], blocks[1]);
+			break;
+		case INDEXED:
+			index.save();
+			break;
+		case CONTIGUOUS:
+			for(int i = 0; moved >= 0 && i < length; i++)
+				freeBlock(moved + i);
+			break;
+		}
+		replaceFileRecord(index != null ? new FileRecord(fileRecord.getFileName(), fileRecord.getIndexBlock(), size) : new FileRecord(fileRecord.getFileName(), start, length + added, size));
 		
-		// Return the byte[] object.
-		return tempFileContent;
+		// Update the File System Bitmap.
+		commitTransaction();
 	}
 	
 	/**
-	 * Deletes the contents of the given file from the disk.
+	 * Cuts a file down to the given number of bytes, freeing only the
+	 * blocks past its new end. The rest of the new last block is cleared so
+	 * that it is padded with zeros like the last block of any file.
 	 * 
 	 * @param   fileName
 	 *          A {@code String} value representing the name of the file.
+	 * @param   length
+	 *          A {@code long} value representing the new number of bytes in the
+	 *          file.
+	 * @throws  IllegalArgumentException
+	 *          If the length is negative or past the end of the file.
 	 */
-	protected static void deleteFile(String fileName) {
+	protected static void truncate(String fileName, long length) {
 		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
 		// Get file info from FAT.
 		FileRecord fileRecord = DiskInterfaceUtils.getFileRecord(fileName);
-		int fileRecordIndex = DiskInterfaceUtils.getFileRecordIndex(fileName);
-		int block = 0, length = 0;
+		if(length < 0 || length > fileRecord.getSize()) throw new IllegalArgumentException("The new length must be from 0 to " + fileRecord.getSize() + " bytes.");
+		
+		// A chained or contiguous file always keeps its first block.
+		int payload = (type == AllocationType.CHAINED ? CHAINED_BLOCK_SIZE : BLOCK_SIZE);
+		int kept = (int)((length + payload - 1) / payload);
+		if(type != AllocationType.INDEXED) kept = Math.max(kept, 1);
+		int start = fileRecord.getStartBlock(), last = -1;
+		beginTransaction();
 		
-		// Get file bytes based on allocation type.
 		switch(type) {
 		case CHAINED:
-			// FAT Chained: File Name, Start Block, Length
-			block = fileRecord.getStartBlock();
-			length = fileRecord.getLength();
+			// End the chain at the new last block and free the links after it.
+			last = start;
+			for(int i = 1; i < kept; i++)
+				last = readChainLink(last);
 			
-			// Chained: Random free block. Last bit points to next free block. Allow for consolidation.
-			while(true) {
-				if(length > 1) {
-					// Save the next block location.
-					int nextBlock = (disk.read(block, CHAINED_BLOCK_SIZE) & 0xFF);
-					
-					// Clear the contents of the current block.
-					clearBlock(block);
-					
-					// Decrement chain length.
-					length--;
-					
-					// Move to the next chained block.
+			if(kept < fileRecord.getLength()) {
+				int block = readChainLink(last);
+				writeChainLink(last, 0);
+				for(int i = kept; i < fileRecord.getLength(); i++) {
+					int nextBlock = readChainLink(block);
+					freeBlock(block);
 					block = nextBlock;
 				}
-				else {
-					// Clear the contents of the current block.
-					clearBlock(block);
-					
-					// Remove the file from the FAT.
-					for(int i = 0; i < recordSize; i++)
-						disk.write(0, (fileRecordIndex * recordSize) + i, (byte)0);
-					
-					break;
-				}
 			}
-			
 			break;
 		case INDEXED:
-			// FAT Indexed: File Name, Index Block
-			block = fileRecord.getIndexBlock();
-			
-			// Get indexes from index block.
-			ArrayList<Integer> indexes = new ArrayList<Integer>();
-			for(int i = 0; i < 10; i++) {
-				if(disk.read(block, i) == 0) break;
-				indexes.add(Byte.toUnsignedInt(disk.read(block, i)));
-				length++;
-			}
-			
-			// Indexed: Random Free block to store an ordered list of other random free blocks holding the file.
-			while(true) {
-				// Get the location for the current block.
-				block = indexes.remove(0);
-				
-				if(length > 1) {
-					// Clear the contents of the current block.
-					clearBlock(block);
-					
-					// Decrement index length.
-					length--;
-				}
-				else {
-					// Clear the contents of the current block.
-					clearBlock(block);
-					
-					// Clear the index block.
-					clearBlock(fileRecord.getIndexBlock());
-					
-					// Remove the file from the FAT.
-					for(int i = 0; i < recordSize; i++)
-						disk.write(0, (fileRecordIndex * recordSize) + i, (byte)0);
-					
-					break;
-				}
-			}
+			// Free the data blocks past the end and the indirect blocks that listed only them.
+			IndexBlock index = new IndexBlock(disk, fileRecord.getIndexBlock());
+			int[] dataBlocks = index.getBlocks();
+			if(kept > 0) last = dataBlocks[kept - 1];
+			for(int i = kept; i < dataBlocks.length; i++)
+				freeBlock(dataBlocks[i]);
+			for(int indirectBlock : index.truncate(kept))
+				freeBlock(indirectBlock);
+			index.save();
 			break;
 		case CONTIGUOUS:
-			// FAT Contiguous: File Name, Start Block, Length
-			block = fileRecord.getStartBlock();
-			length = fileRecord.getLength();
-			
-			// Contiguous: First available set of blocks large enough. Allow for compaction.
-			for(int i = 0; i < length; i++)
-				clearBlock(block + i);
-			
-			// Remove the file from the FAT.
-			for(int i = 0; i < recordSize; i++)
-				disk.write(0, (fileRecordIndex * recordSize) + i, (byte)0);
-			
+			last = start + kept - 1;
+			for(int i = kept; i < fileRecord.getLength(); i++)
+				freeBlock(start + i);
 			break;
 		}
 		
-		// Sort the FAT.
-		sortFAT();
+		// Clear the bytes past the new end in the last block.
+		int location = (int)(length - (long)(kept - 1) * payload);
+		if(last >= 0 && location < payload) disk.write(last, location, new byte[payload - location], 0, payload - location);
+		
+		// Record the new size.
+		replaceFileRecord(type == AllocationType.INDEXED ? new FileRecord(fileRecord.getFileName(), fileRecord.getIndexBlock(), length) : new FileRecord(fileRecord.getFileName(), start, kept, length));
+		
+		// Update the File System Bitmap.
+		commitTransaction();
 	}
 	
 	/**
-	 * A utility function used to quickly clear all of the bytes in a
-	 * given block by index.
+	 * Returns {@code true} if the given number of blocks from the given
+	 * block are all free data blocks; otherwise {@code false}.
 	 * 
 	 * @param   block
-	 *          An {@code int} value representing the block index on the disk to clear.
+	 *          An {@code int} value representing the first block index on the disk.
+	 * @param   count
+	 *          An {@code int} value representing the number of blocks.
+	 * @return  Returns {@code true} if every block is free; otherwise
+	 *          {@code false}.
 	 */
-	private static void clearBlock(int block) {
-		disk.write(1, block, (byte) 0);
-		for(int i = 0; i < BLOCK_SIZE; i++)
-			disk.write(block, i, (byte) 0);
+	private static boolean isExtentFree(int block, int count) {
+		if(block < FIRST_DATA_BLOCK || block + count > NUM_BLOCKS) return false;
+		
+		int used = bitmap.nextSetBit(block);
+		return used < 0 || used >= block + count;
 	}
 	
 	/**
-	 * A utility function used to quickly retrieve, sort, and re-write the
-	 * files in the disk file allocation table and then update the free
-	 * space bitmap.
+	 * Slides the files on a contiguous disk toward the start of the disk
+	 * so that the free space gathers into one extent at the end. Files are
+	 * moved whole, lowest start block first, and the pass stops before the
+	 * file that would take it past {@code maxBlocks} moved blocks, so it
+	 * can be run again later to continue. Directory nodes stay where they
+	 * are and the files are packed around them.
+	 * 
+	 * @param   maxBlocks
+	 *          An {@code int} value representing the most blocks to move in this
+	 *          pass. At least one file is always moved if any needs moving.
+	 * @return  A {@code CompactionReport} with the number of blocks moved and the
+	 *          largest free extent before and after the pass.
+	 * @see     CompactionReport
 	 */
-	protected static void sortFAT() {
-		int numRecords = 0;
+	protected static CompactionReport compact(int maxBlocks) {
+		if(Project3.debugMode) System.out.println(new Object(){}.getClass().getName() + "." + new Object(){}.getClass().getEnclosingMethod().getName() + "() called.");
 		
-		// Get the number of valid files in the FAT.
-		for(int i = 0; i < maxRecords; i++)
-			if(disk.read(0, i * recordSize) != 0) numRecords++;
+		int largestBefore = bitmap.getLargestExtent();
+		int blocksMoved = 0, filesMoved = 0;
+		boolean complete = true;
 		
-		String[][] tempFileAllocationTable = new String[numRecords][3];
+		// Order the files by where they start on the disk.
+		ArrayList<FileRecord> files = new ArrayList<FileRecord>(fileRecords.values());
+		files.sort(Comparator.comparingInt(FileRecord::getStartBlock));
+		HashSet<Integer> nodeBlocks = new HashSet<Integer>(directory.getNodeBlocks());
 		
-		// If one record, move it to the top of the FAT.
-		if(numRecords == 1) {
-			int index = 0;
+		byte[] buffer = new byte[BLOCK_SIZE];
+		int target = FIRST_DATA_BLOCK;
+		for(FileRecord fileRecord : files) {
+			int start = fileRecord.getStartBlock();
+			int length = Math.max(fileRecord.getLength(), 1);
 			
-			for(int i = 0; i < maxRecords; i++) if(disk.read(0, i * recordSize) != 0) index = i;
+			// Skip past any directory node in the way.
+			for(int i = target; i < target + length && target < start; i++)
+				if(nodeBlocks.contains(i)) target = i + 1;
 			
-			if(index > 0)
-				for(int j = 0; j < recordSize; j++) {
-					disk.write(0, j, disk.read(0, (index * recordSize) + j));
-					disk.write(0, (index * recordSize) + j, (byte) 0);
+			if(start > target) {
+				// Stop once this file would go over the limit.
+				if(blocksMoved > 0 && blocksMoved + length > maxBlocks) {
+					complete = false;
+					break;
 				}
-		}
-		// Otherwise, get the records and sort.
-		else {
-			int counter = 0;
-			// Store the current, unsorted FAT to a temporary table.
-			for(int i = 0; i < maxRecords; i++) {
-				if(Project3.debugMode) System.out.println("Reading from block " + i + ", byte starting at " + i * recordSize + ".");
-				int startByte = i * recordSize;
 				
-				if(disk.read(0, startByte) != 0) {
-					byte[] tempName = new byte[8];
-					for(int j = 0; j < 8; j++) {
-						if(disk.read(0, startByte + j) == 0) break;
-						tempName[j] = disk.read(0, startByte + j);
-					}
-					tempFileAllocationTable[counter][0] = new String(tempName);
-					if(tempFileAllocationTable[counter][0].trim().equals("")) break;
-					
-					tempFileAllocationTable[counter][1] = Integer.toString(Byte.toUnsignedInt(disk.read(0, startByte + 8)));
-					
-					tempFileAllocationTable[counter++][2] = (type == AllocationType.INDEXED ? null : Integer.toString(Byte.toUnsignedInt(disk.read(0, startByte + 9))));
+				// A copy into free blocks is unreachable until the record moves; a copy over the file itself is journaled with it.
+				boolean overlaps = (target + length > start);
+				if(overlaps) beginTransaction();
+				
+				// Copy the blocks down in ascending order so overlapping ranges are safe.
+				for(int i = 0; i < length; i++) {
+					disk.readBlock(start + i, buffer);
+					disk.writeBlock(target + i, buffer);
+					bitmap.setUsed(target + i);
 				}
-			}
-			
-			// Sort the current, unsorted FAT in the temporary table.
-			if(numRecords > 1) {
-				Arrays.sort(tempFileAllocationTable, new Comparator<String[]>(){
-					@Override
-					public int compare(String[] first, String[] second){
-						// compare the first element
-						int comparedTo = first[0].compareTo(second[0]);
-						// if the first element is same (result is 0), compare the second element
-						if(comparedTo == 0) return first[1].compareTo(second[1]);
-						else return comparedTo;
-					}
-				});
-			}
-			
-			// Clear the current FAT.
-			clearBlock(0);
-			
-			// Write the new, sorted FAT to disk.
-			for(int i = 0; i < numRecords; i++) {
-				if(Project3.debugMode) System.out.println("Reading from block " + i + ", byte starting at " + i * recordSize + ".");
-				int startByte = i * recordSize;
+				if(!overlaps) beginTransaction();
 				
-				for(int j = 0; j < 8; j++)
-					disk.write(0, startByte + j, tempFileAllocationTable[i][0].getBytes()[j]);
+				// Free the blocks that are no longer covered by the file.
+				for(int i = Math.max(start, target + length); i < start + length; i++)
+					freeBlock(i);
 				
-				disk.write(0, startByte + 8, (byte) Integer.parseInt(tempFileAllocationTable[i][1]));
+				// Point the directory record at the new location.
+				replaceFileRecord(new FileRecord(fileRecord.getFileName(), target, fileRecord.getLength(), fileRecord.getSize()));
+				commitTransaction();
 				
-				if(type != AllocationType.INDEXED)
-					disk.write(0, startByte + 9, (byte) Integer.parseInt(tempFileAllocationTable[i][2]));
+				blocksMoved += length;
+				filesMoved++;
 			}
+			else target = start;
+			
+			target += length;
 		}
 		
 		// Update the File System Bitmap.
 		updateBitmap();
+		
+		return new CompactionReport(blocksMoved, filesMoved, largestBefore, bitmap.getLargestExtent(), complete);
+	}
+	
+	/**
+	 * A utility function used to quickly clear all of the bytes in a
+	 * given block by index.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk to clear.
+	 */
+	private static void clearBlock(int block) {
+		disk.writeBlock(block, new byte[BLOCK_SIZE]);
+	}
+	
+	/**
+	 * A utility function used to clear a data block and return it to the
+	 * free space bitmap, along with its entry in the chain table.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk to free.
+	 */
+	protected static void freeBlock(int block) {
+		bitmap.setFree(block);
+		if(chainTable != null) chainTable.setNext(block, 0);
+		clearBlock(block);
 	}
 	
 	/**
-	 * A utility function used to quickly scan the disk for used and free
-	 * blocks before updating the disk bitmap block.
+	 * A utility function used to write the in-memory free space bitmap and
+	 * chain table to the disk if they have changed since they were last
+	 * written. On a journaled disk they are written in a transaction of
+	 * their own unless one is already open.
 	 */
 	protected static void updateBitmap() {
-		int usedBlocks = 0;
-		for(int i = 2; i < NUM_BLOCKS; i++) {
-			if(!isBlockEmpty(i)) {
-				disk.write(1, i, (byte) 1);
-				usedBlocks++;
-			}
-			else
-				disk.write(1, i, (byte) 0);
+		boolean dirty = bitmap.isDirty() || (chainTable != null && chainTable.isDirty());
+		if(journal != null && !journal.isOpen() && dirty) {
+			beginTransaction();
+			commitTransaction();
 		}
-		
-		if(usedBlocks > 0) {
-			disk.write(1, 0, (byte) 1);
-			disk.write(1, 1, (byte) 1);
+		else flushAllocation();
+	}
+	
+	/**
+	 * Writes the changed blocks of the free space bitmap and of the chain
+	 * table, if the disk has one.
+	 */
+	private static void flushAllocation() {
+		bitmap.flush(disk, superblock.getBitmapStart());
+		if(chainTable != null) chainTable.flush(disk, superblock.getTableStart());
+	}
+	
+	/**
+	 * Starts a journal transaction. The directory and bitmap changes up to
+	 * {@link #commitTransaction()} reach the disk together or not at all.
+	 * File data should be written before the transaction, while no record
+	 * points to it. Does nothing on a disk without a journal.
+	 */
+	protected static void beginTransaction() {
+		if(journal != null) journal.begin();
+	}
+	
+	/**
+	 * Writes the free space bitmap and chain table into the open journal
+	 * transaction and commits it. The transaction is logged with the others
+	 * at the next checkpoint.
+	 */
+	protected static void commitTransaction() {
+		flushAllocation();
+		if(journal != null) {
+			try {journal.commit();}
+			catch(IOException e) {throw new UncheckedIOException(e);}
+		}
+	}
+	
+	/**
+	 * Reads the free space bitmap from the disk. This is only reliable on a
+	 * journaled disk, where the bitmap is changed together with the
+	 * directory.
+	 */
+	protected static void loadBitmap() {
+		bitmap = FreeSpaceBitmap.read(disk, superblock.getBitmapStart(), FIRST_DATA_BLOCK);
+	}
+	
+	/**
+	 * Writes the free space bitmap and makes every change to the disk so
+	 * far durable.
+	 * 
+	 * @throws  IOException
+	 *          If the disk storage could not be written.
+	 */
+	protected static void checkpoint() throws IOException {
+		updateBitmap();
+		disk.checkpoint();
+	}
+	
+	/**
+	 * Writes back every unsaved change and closes the disk.
+	 * 
+	 * @throws  IOException
+	 *          If the disk storage could not be written or closed.
+	 */
+	protected static void closeDisk() throws IOException {
+		updateBitmap();
+		disk.close();
+	}
+	
+	/**
+	 * Makes every change so far durable and takes a snapshot of the disk.
+	 * 
+	 * @return  The new {@code DiskSnapshot}.
+	 * @throws  IOException
+	 *          If the disk storage could not be written.
+	 */
+	protected static DiskSnapshot takeSnapshot() throws IOException {
+		checkpoint();
+		return volume.snapshot();
+	}
+	
+	/**
+	 * Makes every change so far durable and writes the blocks changed since
+	 * the given checkpoint to a delta file.
+	 * 
+	 * @param   since
+	 *          An {@code int} value representing the checkpoint to export the
+	 *          changes since, or 0 for every written block.
+	 * @param   file
+	 *          The {@code File} to write the delta to.
+	 * @return  The {@code DiskDelta} describing the file written.
+	 * @throws  IOException
+	 *          If the disk or the delta file could not be written.
+	 * @see     DiskDelta
+	 */
+	protected static DiskDelta exportChanges(int since, File file) throws IOException {
+		checkpoint();
+		return DiskDelta.export(tracker, tracker, since, superblock, file);
+	}
+	
+	/**
+	 * Applies the given delta files to the disk in order and reloads the
+	 * directory and free space bitmap from the result. Each delta after the
+	 * first must start at the checkpoint the one before it ends at.
+	 * 
+	 * @param   files
+	 *          An {@code ArrayList<File>} of the delta files, oldest first.
+	 * @return  An {@code ArrayList<DiskDelta>} describing the files applied.
+	 * @throws  IOException
+	 *          If a delta file could not be read or the disk written.
+	 * @throws  IllegalArgumentException
+	 *          If a file is not a delta for this disk or the files are out of
+	 *          order.
+	 * @see     DiskDelta
+	 */
+	protected static ArrayList<DiskDelta> applyDeltas(ArrayList<File> files) throws IOException {
+		// Check the order before anything is written.
+		int previous = -1;
+		for(File file : files) {
+			DiskDelta delta = DiskDelta.read(file);
+			if(previous >= 0 && delta.getSince() != previous) throw new IllegalArgumentException(file.getName() + " starts at checkpoint " + delta.getSince() + ", not " + previous + ".");
+			previous = delta.getCheckpoint();
 		}
-		else {
-			disk.write(1, 0, (byte) 0);
-			disk.write(1, 1, (byte) 0);
+		
+		checkpoint();
+		ArrayList<DiskDelta> applied = new ArrayList<DiskDelta>();
+		for(File file : files)
+			applied.add(DiskDelta.apply(disk, superblock, file));
+		
+		// The directory, chain table and bitmap on the disk have been replaced.
+		directory = new DirectoryTree(disk, superblock.getRootBlock());
+		if(chainTable != null) chainTable = ChainTable.read(disk, superblock.getTableStart());
+		loadFAT();
+		rebuildBitmap();
+		checkpoint();
+		
+		return applied;
+	}
+	
+	/**
+	 * Rebuilds the in-memory free space bitmap from the allocation
+	 * metadata alone: the directory nodes and records, the chain links and
+	 * the index blocks. Block content is never inspected, so blocks of zeros
+	 * that belong to a file stay allocated.
+	 * 
+	 * @return  An {@code int} value representing the number of blocks whose
+	 *          state differs from the previous bitmap.
+	 */
+	protected static int rebuildBitmap() {
+		FreeSpaceBitmap rebuilt = new FreeSpaceBitmap(NUM_BLOCKS, FIRST_DATA_BLOCK, BLOCK_SIZE);
+		
+		for(int block : directory.getNodeBlocks())
+			rebuilt.setUsed(block);
+		
+		for(FileRecord fileRecord : fileRecords.values()) {
+			int block = fileRecord.getStartBlock();
+			int length = Math.max(fileRecord.getLength(), 1);
+			
+			switch(type) {
+			case CHAINED:
+				// Follow the chain links for the recorded length.
+				for(int i = 0; i < length; i++) {
+					rebuilt.setUsed(block);
+					if(i < length - 1) block = readChainLink(block);
+				}
+				break;
+			case INDEXED:
+				// Mark the index block, its indirect blocks and every block it lists.
+				IndexBlock index = new IndexBlock(disk, block);
+				rebuilt.setUsed(block);
+				for(int indirectBlock : index.getIndirectBlocks())
+					rebuilt.setUsed(indirectBlock);
+				for(int dataBlock : index.getBlocks())
+					rebuilt.setUsed(dataBlock);
+				break;
+			case CONTIGUOUS:
+				// Mark the recorded extent.
+				for(int i = 0; i < length; i++)
+					rebuilt.setUsed(block + i);
+				break;
+			}
 		}
+		
+		// Count the blocks that were wrong in the previous bitmap.
+		int corrected = 0;
+		if(bitmap != null)
+			for(int i = FIRST_DATA_BLOCK; i < NUM_BLOCKS; i++)
+				if(bitmap.isUsed(i) != rebuilt.isUsed(i)) corrected++;
+		
+		bitmap = rebuilt;
+		updateBitmap();
+		
+		return corrected;
+	}
+	
+	/**
+	 * A recovery utility function that scans the content of every free
+	 * block and returns the blocks that still hold data. This is the only
+	 * place where block content is used to judge occupancy.
+	 * 
+	 * @return  An {@code ArrayList<Integer>} of the free blocks that are not
+	 *          empty.
+	 */
+	protected static ArrayList<Integer> findOrphanedBlocks() {
+		ArrayList<Integer> orphans = new ArrayList<Integer>();
+		for(int i = bitmap.nextClearBit(FIRST_DATA_BLOCK); i >= 0; i = bitmap.nextClearBit(i + 1))
+			if(!isBlockEmpty(i)) orphans.add(i);
+		return orphans;
+	}
+	
+	/**
+	 * Clears the content of the given free blocks.
+	 * 
+	 * @param   orphans
+	 *          An {@code ArrayList<Integer>} of the free blocks to clear.
+	 */
+	protected static void clearOrphanedBlocks(ArrayList<Integer> orphans) {
+		for(int block : orphans)
+			if(!bitmap.isUsed(block)) clearBlock(block);
+	}
+	
+	/**
+	 * Checks the given block by index and returns {@code true} if it is empty;
+	 * otherwise {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk to
+	 *          check.
+	 * @return  Returns {@code true} if the given block by index is empty;
+	 *          otherwise {@code false}.
+	 */
+	private static boolean isBlockEmpty(int block) {
+		byte[] content = disk.readBlock(block);
+		for(int i = 0; i < BLOCK_SIZE; i++)
+			if(content[i] != 0) return false;
+		return true;
 	}
 	
 	/**
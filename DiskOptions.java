@@ -0,0 +1,134 @@
+
+
+/**
+ * DiskOptions.java
+ * The settings used to create a disk, given as {@code key=value} arguments
+ * on the command line.
+ * 
+ */
+public class DiskOptions {
+	private int numBlocks;
+	private int blockSize;
+	private String image;
+	private DeviceType device;
+	private int cacheBlocks;
+	private int journalBlocks;
+	private boolean chainTable;
+	
+	
+	/**
+	 * This is the default constructor for a {@code DiskOptions} object. The
+	 * defaults describe a 128 KB disk of 256 blocks of 512 bytes.
+	 */
+	public DiskOptions() {
+		setNumBlocks(256);
+		setBlockSize(512);
+		setImage(null);
+		setDevice(null);
+		setCacheBlocks(-1);
+		setJournalBlocks(-1);
+		setChainTable(false);
+	}
+	
+	// Setter procedures.
+	public void setNumBlocks(int val)		{numBlocks = val;}
+	public void setBlockSize(int val)		{blockSize = val;}
+	public void setImage(String val)		{image = val;}
+	public void setDevice(DeviceType val)	{device = val;}
+	public void setCacheBlocks(int val)		{cacheBlocks = val;}
+	public void setJournalBlocks(int val)	{journalBlocks = val;}
+	public void setChainTable(boolean val)	{chainTable = val;}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return numBlocks;}
+	public int getBlockSize()				{return blockSize;}
+	public String getImage()				{return image;}
+	public boolean hasChainTable()			{return chainTable;}
+	
+	/**
+	 * Returns the storage for the disk blocks. Unless one was chosen, a disk
+	 * image is mapped into memory and a disk without one is kept on the heap
+	 * with each block made on its first write.
+	 * 
+	 * @return  The {@code DeviceType} holding the disk blocks.
+	 */
+	public DeviceType getDevice() {
+		if(device != null) return device;
+		return (image != null ? DeviceType.MAPPED : DeviceType.LAZY);
+	}
+	
+	/**
+	 * Returns the number of blocks to keep in the block cache, or 0 for no
+	 * cache. Unless a size was chosen, a disk kept in an image file is
+	 * given a cache of 64 blocks and a disk kept in memory is given none.
+	 * 
+	 * @return  An {@code int} value representing the cache size in blocks.
+	 */
+	public int getCacheBlocks() {
+		if(cacheBlocks >= 0) return cacheBlocks;
+		return (image != null ? 64 : 0);
+	}
+	
+	/**
+	 * Returns the number of blocks to set aside for the metadata journal of
+	 * a new disk, or 0 for no journal. Unless a size was chosen, a disk kept
+	 * in an image file is given a journal of 16 blocks and a disk kept in
+	 * memory, which cannot outlive a crash, is given none.
+	 * 
+	 * @return  An {@code int} value representing the journal size in blocks.
+	 */
+	public int getJournalBlocks() {
+		if(journalBlocks >= 0) return journalBlocks;
+		return (image != null ? 16 : 0);
+	}
+	
+	/**
+	 * Applies a single {@code key=value} argument. The keys are
+	 * {@code blocks}, {@code blocksize}, {@code image}, the path of a disk
+	 * image file to keep the disk in, {@code device}, the storage for the
+	 * disk blocks, {@code cache}, the number of blocks to cache,
+	 * {@code journal}, the number of blocks in the metadata journal, and
+	 * {@code chain}, where a chained disk keeps its links: {@code inline} in
+	 * the last bytes of each block or in a {@code table}.
+	 * 
+	 * @param   arg
+	 *          A {@code String} value holding the argument, e.g. "blocksize=4096".
+	 * @return  Returns {@code true} if the argument was understood; otherwise
+	 *          {@code false}.
+	 */
+	public boolean parse(String arg) {
+		int split = arg.indexOf('=');
+		if(split < 0) return false;
+		
+		String key = arg.substring(0, split).trim().toLowerCase();
+		String value = arg.substring(split + 1).trim();
+		try {
+			switch(key) {
+			case "blocks":
+				setNumBlocks(Integer.parseInt(value));
+				return true;
+			case "blocksize":
+				setBlockSize(Integer.parseInt(value));
+				return true;
+			case "image":
+				setImage(value);
+				return value.length() > 0;
+			case "device":
+				setDevice(DeviceType.valueOf(value.toUpperCase()));
+				return true;
+			case "cache":
+				setCacheBlocks(Integer.parseInt(value));
+				return cacheBlocks >= 0;
+			case "journal":
+				setJournalBlocks(Integer.parseInt(value));
+				return journalBlocks >= 0;
+			case "chain":
+				setChainTable(value.equalsIgnoreCase("table"));
+				return chainTable || value.equalsIgnoreCase("inline");
+			default:
+				return false;
+			}
+		}
+		catch(IllegalArgumentException e) {return false;}
+	}
+}
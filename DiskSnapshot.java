@@ -0,0 +1,125 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+
+/**
+ * DiskSnapshot.java
+ * A read-only view of a {@code CopyOnWriteDisk} as it was when the snapshot
+ * was taken. A snapshot holds only the blocks the live volume has changed
+ * since; every other block is read from the volume.
+ * 
+ */
+public class DiskSnapshot implements BlockDevice {
+	private CopyOnWriteDisk volume;
+	private int id;
+	private long created;
+	private HashMap<Integer, byte[]> preserved;
+	
+	
+	/**
+	 * Constructs an empty {@code DiskSnapshot} of the given volume.
+	 * 
+	 * @param   volume
+	 *          The {@code CopyOnWriteDisk} the snapshot belongs to.
+	 * @param   id
+	 *          An {@code int} for the number of the snapshot.
+	 */
+	protected DiskSnapshot(CopyOnWriteDisk volume, int id) {
+		this.volume = volume;
+		this.id = id;
+		this.created = System.currentTimeMillis();
+		this.preserved = new HashMap<Integer, byte[]>();
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return volume.getNumBlocks();}
+	public int getBlockSize()				{return volume.getBlockSize();}
+	public int getId()						{return id;}
+	public long getCreated()				{return created;}
+	protected HashMap<Integer, byte[]> getPreserved()	{return preserved;}
+	
+	/**
+	 * Returns the number of blocks this snapshot holds a copy of.
+	 * 
+	 * @return  An {@code int} value representing the number of preserved blocks.
+	 */
+	public int getPreservedBlocks() {
+		synchronized(volume) {return preserved.size();}
+	}
+	
+	/**
+	 * Releases the snapshot. It cannot be read afterwards.
+	 */
+	public void release() {
+		volume.release(this);
+	}
+	
+	@Override
+	public byte read(int block, int location) {
+		byte[] value = new byte[1];
+		volume.read(this, block, location, value, 0, 1);
+		return value[0];
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		volume.read(this, block, 0, dst, 0, getBlockSize());
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		volume.read(this, block, location, dst, offset, length);
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		int length = dst.remaining();
+		byte[] data = new byte[length];
+		volume.read(this, block, location, data, 0, length);
+		dst.put(data);
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		throw new UnsupportedOperationException("A snapshot is read-only.");
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		throw new UnsupportedOperationException("A snapshot is read-only.");
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		throw new UnsupportedOperationException("A snapshot is read-only.");
+	}
+	
+	/**
+	 * A snapshot has nothing to write back.
+	 */
+	@Override
+	public void checkpoint() {
+	}
+	
+	/**
+	 * Closing a snapshot releases it.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * The DiskSnapshot toString function override for the Object class.
+	 * <p>
+	 * Returns a string representation for the DiskSnapshot object.
+	 * 
+	 * @return  Returns a {@code String} representation for the
+	 *          {@code DiskSnapshot} object.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return String.format("Snapshot %d, taken %tT, %d block(s) preserved", id, created, getPreservedBlocks());
+	}
+}
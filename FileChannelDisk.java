@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * FileChannelDisk.java
+ * A {@code BlockDevice} kept in a disk image file that is read and written
+ * at explicit positions through a file channel. Nothing is mapped, so the
+ * image may be larger than the address space allows, and the operating
+ * system page cache is the only copy of the blocks in memory.
+ * 
+ */
+public class FileChannelDisk implements BlockDevice {
+	private int numBlocks;
+	private int blockSize;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private boolean dirty;
+	
+	
+	/**
+	 * Constructs a {@code FileChannelDisk} over the given image file, creating
+	 * or growing the file to hold {@code numBlocks} blocks. Existing content
+	 * is kept.
+	 * 
+	 * @param   image
+	 *          The {@code File} holding the disk image.
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @throws  IOException
+	 *          If the image file could not be opened.
+	 */
+	public FileChannelDisk(File image, int numBlocks, int blockSize) throws IOException {
+		this.numBlocks = numBlocks;
+		this.blockSize = blockSize;
+		
+		long size = (long)numBlocks * blockSize;
+		this.file = new RandomAccessFile(image, "rw");
+		if(file.length() < size) file.setLength(size);
+		this.channel = file.getChannel();
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return numBlocks;}
+	public int getBlockSize()				{return blockSize;}
+	
+	@Override
+	public byte read(int block, int location) {
+		ByteBuffer dst = ByteBuffer.allocate(1);
+		read(block, location, dst);
+		return dst.get(0);
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		read(block, 0, ByteBuffer.wrap(dst, 0, blockSize));
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		read(block, location, ByteBuffer.wrap(dst, offset, length));
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		long position = position(block, location);
+		try {
+			while(dst.hasRemaining()) {
+				int read = channel.read(dst, position);
+				if(read < 0) throw new IOException("Unexpected end of the disk image.");
+				position += read;
+			}
+		}
+		catch(IOException e) {throw new UncheckedIOException(e);}
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		write(block, location, ByteBuffer.wrap(new byte[] {value}));
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		write(block, location, ByteBuffer.wrap(src, offset, length));
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		long position = position(block, location);
+		try {
+			while(src.hasRemaining())
+				position += channel.write(src, position);
+		}
+		catch(IOException e) {throw new UncheckedIOException(e);}
+		dirty = true;
+	}
+	
+	/**
+	 * Forces the writes since the last checkpoint to the image file.
+	 */
+	@Override
+	public void checkpoint() throws IOException {
+		if(dirty) {
+			channel.force(false);
+			dirty = false;
+		}
+	}
+	
+	/**
+	 * Forces any unsaved changes to the image file and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		checkpoint();
+		file.close();
+	}
+	
+	/**
+	 * Returns the position of a byte of the given block within the image.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   location
+	 *          An {@code int} value representing the byte within the block.
+	 * @return  A {@code long} value representing the position in the file.
+	 */
+	private long position(int block, int location) {
+		return (long)block * blockSize + location;
+	}
+}
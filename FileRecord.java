@@ -7,6 +7,7 @@
 public class FileRecord {
 	private String fileName;
 	private int block, length;
+	private long size;
 	
 	/**
 	 * This is the default constructor for a {@code FileRecord} object.
@@ -15,6 +16,7 @@ public class FileRecord {
 		setFileName("");
 		setBlock(-1);
 		setLength(0);
+		setSize(0);
 	}
 	
 	/**
@@ -27,13 +29,16 @@ public class FileRecord {
 	 *          An {@code int} value representing the starting block location on
 	 *          the disk.
 	 * @param   length
-	 *          An {@code int} value representing the required number of blocks to
-	 *          store the given file for preallocation.
+	 *          An {@code int} value representing the number of blocks that store
+	 *          the file.
+	 * @param   size
+	 *          A {@code long} value representing the number of bytes in the file.
 	 */
-	public FileRecord(String fileName, int startBlock, int length) {
+	public FileRecord(String fileName, int startBlock, int length, long size) {
 		setFileName(fileName);
 		setBlock(startBlock);
 		setLength(length);
+		setSize(size);
 	}
 	
 	/**
@@ -45,11 +50,14 @@ public class FileRecord {
 	 * @param   indexBlock
 	 *          An {@code int} value representing the index block location on the
 	 *          disk.
+	 * @param   size
+	 *          A {@code long} value representing the number of bytes in the file.
 	 */
-	public FileRecord(String fileName, int indexBlock) {
+	public FileRecord(String fileName, int indexBlock, long size) {
 		setFileName(fileName);
 		setBlock(indexBlock);
 		setLength(0);
+		setSize(size);
 	}
 	
 	/**
@@ -63,18 +71,21 @@ public class FileRecord {
 		setFileName(f.getFileName());
 		setBlock(f.getStartBlock());
 		setLength(f.getLength());
+		setSize(f.getSize());
 	}
 	
 	// Setter procedures.
 	private void setFileName(String val)	{fileName = new String(val);}
 	private void setBlock(int val)			{block = val;}
 	private void setLength(int val)			{length = val;}
+	private void setSize(long val)			{size = val;}
 	
 	// Getter functions.
 	public String getFileName()				{return new String(fileName);}
 	public int getStartBlock()				{return block;}
 	public int getIndexBlock()				{return block;}
 	public int getLength()					{return length;}
+	public long getSize()					{return size;}
 	
 	/**
 	 * The {@code FileRecord} equals function override for the {@code Object} class.
@@ -137,7 +148,7 @@ public class FileRecord {
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		if(length > 0) return String.format("FileName: \"%s\", Start Block: %d, Length: %d", fileName, block, length);
-		else return String.format("FileName: \"%s\", Index Block: %d", fileName, block);
+		if(length > 0) return String.format("FileName: \"%s\", Start Block: %d, Length: %d, Size: %d", fileName, block, length, size);
+		else return String.format("FileName: \"%s\", Index Block: %d, Size: %d", fileName, block, size);
 	}
 }
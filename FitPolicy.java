@@ -0,0 +1,30 @@
+
+
+/**
+ * FitPolicy.java
+ * An enumeration for the contiguous allocation fit policies.
+ * 
+ */
+public enum FitPolicy {
+	
+	/**
+	 * Key used to select the lowest free extent that is large enough.
+	 */
+	FIRST_FIT,
+	
+	/**
+	 * Key used to select the smallest free extent that is large enough.
+	 */
+	BEST_FIT,
+	
+	/**
+	 * Key used to select the largest free extent.
+	 */
+	WORST_FIT,
+	
+	/**
+	 * Key used to select the first free extent that is large enough,
+	 * searching from the end of the previous allocation.
+	 */
+	NEXT_FIT;
+}
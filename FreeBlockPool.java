@@ -0,0 +1,90 @@
+
+
+/**
+ * FreeBlockPool.java
+ * A dense set of free block indexes that supports constant time random
+ * selection.
+ * 
+ */
+public class FreeBlockPool {
+	private int size;
+	private int[] blocks;
+	private int[] positions;
+	
+	
+	/**
+	 * Constructs an empty {@code FreeBlockPool} for a disk with the given
+	 * number of blocks.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 */
+	public FreeBlockPool(int numBlocks) {
+		this.size = 0;
+		this.blocks = new int[numBlocks];
+		this.positions = new int[numBlocks];
+		java.util.Arrays.fill(positions, -1);
+	}
+	
+	/**
+	 * Returns {@code true} if the given block is in the pool; otherwise
+	 * {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the given block is in the pool; otherwise
+	 *          {@code false}.
+	 */
+	public boolean contains(int block) {
+		return positions[block] >= 0;
+	}
+	
+	/**
+	 * Adds the given block to the pool.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void add(int block) {
+		if(contains(block)) return;
+		blocks[size] = block;
+		positions[block] = size++;
+	}
+	
+	/**
+	 * Removes the given block from the pool by moving the last block in the
+	 * pool into its place.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void remove(int block) {
+		int position = positions[block];
+		if(position < 0) return;
+		
+		int last = blocks[--size];
+		blocks[position] = last;
+		positions[last] = position;
+		positions[block] = -1;
+	}
+	
+	/**
+	 * Removes and returns the given number of uniformly random blocks from
+	 * the pool. Nothing is removed if the pool does not hold enough blocks.
+	 * 
+	 * @param   count
+	 *          An {@code int} value representing the number of blocks needed.
+	 * @return  An {@code int[]} holding the removed blocks; otherwise
+	 *          {@code null} if the pool holds fewer than {@code count} blocks.
+	 */
+	public int[] takeRandom(int count) {
+		if(count > size) return null;
+		
+		int[] taken = new int[count];
+		for(int i = 0; i < count; i++) {
+			taken[i] = blocks[(int)(Math.random() * size)];
+			remove(taken[i]);
+		}
+		return taken;
+	}
+}
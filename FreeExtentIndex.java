@@ -0,0 +1,256 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+/**
+ * FreeExtentIndex.java
+ * An index of the runs of free blocks on the disk.
+ * <p>
+ * The free extents are kept in two sorted maps, one keyed by start block
+ * and one keyed by length, so neighbouring extents can be merged and the
+ * smallest extent of a given size can be found in logarithmic time. A
+ * segment tree holding the longest free run under each node answers the
+ * positional searches used by the first-fit, next-fit and worst-fit
+ * policies in logarithmic time.
+ * 
+ */
+public class FreeExtentIndex {
+	private int numBlocks;
+	private int leaves;
+	private int[] prefix;
+	private int[] suffix;
+	private int[] longest;
+	private TreeMap<Integer, Integer> extentsByStart = new TreeMap<Integer, Integer>();
+	private TreeMap<Integer, TreeSet<Integer>> extentsByLength = new TreeMap<Integer, TreeSet<Integer>>();
+	
+	
+	/**
+	 * Constructs a {@code FreeExtentIndex} for a disk with the given number
+	 * of blocks, all of which start out free.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 */
+	public FreeExtentIndex(int numBlocks) {
+		this.numBlocks = numBlocks;
+		
+		leaves = 1;
+		while(leaves < numBlocks) leaves <<= 1;
+		prefix = new int[2 * leaves];
+		suffix = new int[2 * leaves];
+		longest = new int[2 * leaves];
+		
+		// Every leaf for a real block is a free run of one.
+		for(int i = 0; i < numBlocks; i++) {
+			prefix[leaves + i] = 1;
+			suffix[leaves + i] = 1;
+			longest[leaves + i] = 1;
+		}
+		for(int node = leaves - 1; node > 0; node--)
+			pull(node, leaves >>> (31 - Integer.numberOfLeadingZeros(node)));
+		
+		addExtent(0, numBlocks);
+	}
+	
+	/**
+	 * Removes the given free block from the extent that holds it, splitting
+	 * the extent around it.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void allocate(int block) {
+		Map.Entry<Integer, Integer> extent = extentsByStart.floorEntry(block);
+		if(extent == null || extent.getKey() + extent.getValue() <= block) return;
+		
+		int start = extent.getKey();
+		int end = start + extent.getValue();
+		removeExtent(start, end - start);
+		if(block > start) addExtent(start, block - start);
+		if(block + 1 < end) addExtent(block + 1, end - block - 1);
+		
+		update(block, 0);
+	}
+	
+	/**
+	 * Returns the given block to the index, merging it with the free
+	 * extents on either side.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void free(int block) {
+		Map.Entry<Integer, Integer> before = extentsByStart.floorEntry(block);
+		if(before != null && before.getKey() + before.getValue() > block) return;
+		
+		int start = block;
+		int end = block + 1;
+		
+		// Merge with the extent that ends at this block.
+		if(before != null && before.getKey() + before.getValue() == block) {
+			start = before.getKey();
+			removeExtent(start, before.getValue());
+		}
+		
+		// Merge with the extent that starts after this block.
+		Integer afterLength = extentsByStart.get(block + 1);
+		if(afterLength != null) {
+			end = block + 1 + afterLength;
+			removeExtent(block + 1, afterLength);
+		}
+		
+		addExtent(start, end - start);
+		update(block, 1);
+	}
+	
+	/**
+	 * Returns the length of the largest free extent.
+	 * 
+	 * @return  An {@code int} value representing the number of blocks in the
+	 *          largest free extent.
+	 */
+	public int getLargestExtent() {
+		return longest[1];
+	}
+	
+	/**
+	 * Returns the start of a free extent of at least {@code needed} blocks
+	 * chosen by the given policy; otherwise -1.
+	 * 
+	 * @param   needed
+	 *          An {@code int} value representing the necessary number of free,
+	 *          contiguous blocks.
+	 * @param   policy
+	 *          The {@code FitPolicy} used to choose between the extents.
+	 * @param   cursor
+	 *          An {@code int} value representing the block to search from for the
+	 *          next-fit policy.
+	 * @return  An {@code int} value representing the first block of the chosen
+	 *          space; otherwise -1.
+	 * @see     FitPolicy
+	 */
+	public int find(int needed, FitPolicy policy, int cursor) {
+		needed = Math.max(needed, 1);
+		if(longest[1] < needed) return -1;
+		
+		switch(policy) {
+		case BEST_FIT:
+			Map.Entry<Integer, TreeSet<Integer>> fit = extentsByLength.ceilingEntry(needed);
+			return fit == null ? -1 : fit.getValue().first();
+		case WORST_FIT:
+			return search(1, 0, leaves, 0, longest[1], new int[1]);
+		case NEXT_FIT:
+			int start = search(1, 0, leaves, Math.min(cursor, numBlocks), needed, new int[1]);
+			if(start >= 0) return start;
+			return search(1, 0, leaves, 0, needed, new int[1]);
+		case FIRST_FIT:
+		default:
+			return search(1, 0, leaves, 0, needed, new int[1]);
+		}
+	}
+	
+	/**
+	 * Returns the lowest start at or after {@code from} of a free run of at
+	 * least {@code needed} blocks within the given node; otherwise -1.
+	 * 
+	 * @param   node
+	 *          An {@code int} value representing the segment tree node.
+	 * @param   low
+	 *          An {@code int} value representing the first block under the node.
+	 * @param   high
+	 *          An {@code int} value representing the block after the last block
+	 *          under the node.
+	 * @param   from
+	 *          An {@code int} value representing the lowest allowed start.
+	 * @param   needed
+	 *          An {@code int} value representing the necessary run length.
+	 * @param   carry
+	 *          An {@code int[1]} holding the length of the free run that ends
+	 *          just before the node.
+	 * @return  An {@code int} value representing the start of the run;
+	 *          otherwise -1.
+	 */
+	private int search(int node, int low, int high, int from, int needed, int[] carry) {
+		if(high <= from) return -1;
+		
+		if(low >= from) {
+			if(carry[0] + prefix[node] >= needed) return low - carry[0];
+			if(longest[node] < needed) {
+				carry[0] = (prefix[node] == high - low ? carry[0] + prefix[node] : suffix[node]);
+				return -1;
+			}
+		}
+		
+		int middle = (low + high) >>> 1;
+		int start = search(2 * node, low, middle, from, needed, carry);
+		if(start >= 0) return start;
+		return search(2 * node + 1, middle, high, from, needed, carry);
+	}
+	
+	/**
+	 * Sets the given leaf of the segment tree and recomputes its ancestors.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   free
+	 *          An {@code int} value of 1 if the block is free; otherwise 0.
+	 */
+	private void update(int block, int free) {
+		int node = leaves + block;
+		prefix[node] = suffix[node] = longest[node] = free;
+		for(int width = 2; (node >>>= 1) > 0; width <<= 1)
+			pull(node, width);
+	}
+	
+	/**
+	 * Recomputes a segment tree node from its two children.
+	 * 
+	 * @param   node
+	 *          An {@code int} value representing the segment tree node.
+	 * @param   width
+	 *          An {@code int} value representing the number of blocks under the
+	 *          node.
+	 */
+	private void pull(int node, int width) {
+		int left = 2 * node, right = left + 1, half = width >>> 1;
+		prefix[node] = (prefix[left] == half ? half + prefix[right] : prefix[left]);
+		suffix[node] = (suffix[right] == half ? half + suffix[left] : suffix[right]);
+		longest[node] = Math.max(Math.max(longest[left], longest[right]), suffix[left] + prefix[right]);
+	}
+	
+	/**
+	 * Adds an extent to both extent maps.
+	 * 
+	 * @param   start
+	 *          An {@code int} value representing the first block of the extent.
+	 * @param   length
+	 *          An {@code int} value representing the number of blocks in the
+	 *          extent.
+	 */
+	private void addExtent(int start, int length) {
+		extentsByStart.put(start, length);
+		TreeSet<Integer> starts = extentsByLength.get(length);
+		if(starts == null) {
+			starts = new TreeSet<Integer>();
+			extentsByLength.put(length, starts);
+		}
+		starts.add(start);
+	}
+	
+	/**
+	 * Removes an extent from both extent maps.
+	 * 
+	 * @param   start
+	 *          An {@code int} value representing the first block of the extent.
+	 * @param   length
+	 *          An {@code int} value representing the number of blocks in the
+	 *          extent.
+	 */
+	private void removeExtent(int start, int length) {
+		extentsByStart.remove(start);
+		TreeSet<Integer> starts = extentsByLength.get(length);
+		starts.remove(start);
+		if(starts.isEmpty()) extentsByLength.remove(length);
+	}
+}
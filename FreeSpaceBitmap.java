@@ -0,0 +1,300 @@
+
+
+/**
+ * FreeSpaceBitmap.java
+ * An in-memory, word-packed copy of the free space bitmap. A pool of the
+ * free block indexes is kept alongside the bits for random allocation,
+ * and an index of the free extents for contiguous allocation.
+ * <p>
+ * On the disk the bitmap holds one bit per block and may span several
+ * blocks. Only the bitmap blocks that have changed are written back.
+ * 
+ */
+public class FreeSpaceBitmap {
+	private int numBlocks;
+	private int numFree;
+	private int bitsPerBlock;
+	private long[] words;
+	private boolean dirty;
+	private boolean[] dirtyBlocks;
+	private FreeBlockPool pool;
+	private FreeExtentIndex extents;
+	private int nextFitCursor;
+	
+	
+	/**
+	 * Constructs an empty {@code FreeSpaceBitmap} for a disk with the given
+	 * number of blocks. The blocks below {@code reservedBlocks} hold the disk
+	 * metadata and are always marked as used.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   reservedBlocks
+	 *          An {@code int} for the number of metadata blocks at the start of
+	 *          the disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 */
+	public FreeSpaceBitmap(int numBlocks, int reservedBlocks, int blockSize) {
+		this.numBlocks = numBlocks;
+		this.numFree = numBlocks;
+		this.bitsPerBlock = 8 * blockSize;
+		this.words = new long[(numBlocks + 63) >>> 6];
+		this.dirtyBlocks = new boolean[(numBlocks + bitsPerBlock - 1) / bitsPerBlock];
+		this.pool = new FreeBlockPool(numBlocks);
+		this.extents = new FreeExtentIndex(numBlocks);
+		this.nextFitCursor = reservedBlocks;
+		
+		for(int i = 0; i < numBlocks; i++)
+			pool.add(i);
+		for(int i = 0; i < reservedBlocks; i++)
+			setUsed(i);
+		
+		dirty = true;
+		java.util.Arrays.fill(dirtyBlocks, true);
+	}
+	
+	/**
+	 * Constructs a {@code FreeSpaceBitmap} from the bitmap blocks of the
+	 * given disk. The loaded bitmap has no unwritten changes.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the bitmap.
+	 * @param   bitmapStart
+	 *          An {@code int} for the first bitmap block on the disk.
+	 * @param   reservedBlocks
+	 *          An {@code int} for the number of metadata blocks at the start of
+	 *          the disk.
+	 * @return  The {@code FreeSpaceBitmap} read from the disk.
+	 */
+	public static FreeSpaceBitmap read(BlockDevice disk, int bitmapStart, int reservedBlocks) {
+		FreeSpaceBitmap bitmap = new FreeSpaceBitmap(disk.getNumBlocks(), reservedBlocks, disk.getBlockSize());
+		
+		byte[] data = new byte[disk.getBlockSize()];
+		for(int i = 0; i < bitmap.dirtyBlocks.length; i++) {
+			disk.readBlock(bitmapStart + i, data);
+			for(int j = 0; j < data.length; j++) {
+				if(data[j] == 0) continue;
+				for(int bit = 0; bit < 8; bit++) {
+					long block = (long)i * bitmap.bitsPerBlock + 8L * j + bit;
+					if((data[j] & (1 << bit)) != 0 && block < bitmap.numBlocks) bitmap.setUsed((int)block);
+				}
+			}
+		}
+		
+		bitmap.dirty = false;
+		java.util.Arrays.fill(bitmap.dirtyBlocks, false);
+		return bitmap;
+	}
+	
+	/**
+	 * Returns {@code true} if the given block is in use; otherwise {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the given block is in use; otherwise
+	 *          {@code false}.
+	 */
+	public boolean isUsed(int block) {
+		return (words[block >>> 6] & (1L << block)) != 0;
+	}
+	
+	/**
+	 * Marks the given block as used.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void setUsed(int block) {
+		long mask = 1L << block;
+		if((words[block >>> 6] & mask) == 0) {
+			words[block >>> 6] |= mask;
+			pool.remove(block);
+			extents.allocate(block);
+			numFree--;
+			dirty = true;
+			dirtyBlocks[block / bitsPerBlock] = true;
+		}
+	}
+	
+	/**
+	 * Marks the given block as free.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 */
+	public void setFree(int block) {
+		long mask = 1L << block;
+		if((words[block >>> 6] & mask) != 0) {
+			words[block >>> 6] &= ~mask;
+			pool.add(block);
+			extents.free(block);
+			numFree++;
+			dirty = true;
+			dirtyBlocks[block / bitsPerBlock] = true;
+		}
+	}
+	
+	/**
+	 * Returns the number of free blocks on the disk.
+	 * 
+	 * @return  An {@code int} value representing the number of free blocks.
+	 */
+	public int getNumFree() {
+		return numFree;
+	}
+	
+	/**
+	 * Marks the given number of uniformly random free blocks as used and
+	 * returns them. Nothing is allocated if there are not enough free
+	 * blocks.
+	 * 
+	 * @param   count
+	 *          An {@code int} value representing the number of blocks needed.
+	 * @return  An {@code int[]} holding the allocated blocks; otherwise
+	 *          {@code null} if fewer than {@code count} blocks are free.
+	 */
+	public int[] allocateRandom(int count) {
+		int[] blocks = pool.takeRandom(count);
+		if(blocks != null)
+			for(int block : blocks)
+				setUsed(block);
+		return blocks;
+	}
+	
+	/**
+	 * Returns the first block of a free extent of at least {@code needed}
+	 * blocks chosen by the given policy; otherwise -1. The blocks are not
+	 * marked as used.
+	 * 
+	 * @param   needed
+	 *          An {@code int} value representing the necessary number of free,
+	 *          contiguous blocks.
+	 * @param   policy
+	 *          The {@code FitPolicy} used to choose between the free extents.
+	 * @return  An {@code int} value representing the first block of the extent;
+	 *          otherwise -1.
+	 * @see     FitPolicy
+	 */
+	public int findExtent(int needed, FitPolicy policy) {
+		int start = extents.find(needed, policy, nextFitCursor);
+		if(start >= 0) nextFitCursor = start + Math.max(needed, 1);
+		return start;
+	}
+	
+	/**
+	 * Returns the length of the largest free extent.
+	 * 
+	 * @return  An {@code int} value representing the number of blocks in the
+	 *          largest free extent.
+	 */
+	public int getLargestExtent() {
+		return extents.getLargestExtent();
+	}
+	
+	/**
+	 * Returns the index of the first free block at or after the given block;
+	 * otherwise -1.
+	 * 
+	 * @param   from
+	 *          An {@code int} value representing the block index to start from.
+	 * @return  An {@code int} value representing the index of the next free
+	 *          block; otherwise -1.
+	 */
+	public int nextClearBit(int from) {
+		if(from >= numBlocks) return -1;
+		
+		int index = from >>> 6;
+		long word = ~words[index] & (-1L << from);
+		while(true) {
+			if(word != 0) {
+				int block = (index << 6) + Long.numberOfTrailingZeros(word);
+				return block < numBlocks ? block : -1;
+			}
+			if(++index == words.length) return -1;
+			word = ~words[index];
+		}
+	}
+	
+	/**
+	 * Returns the index of the last free block at or before the given block;
+	 * otherwise -1.
+	 * 
+	 * @param   from
+	 *          An {@code int} value representing the block index to start from.
+	 * @return  An {@code int} value representing the index of the previous free
+	 *          block; otherwise -1.
+	 */
+	public int previousClearBit(int from) {
+		if(from < 0) return -1;
+		
+		int index = from >>> 6;
+		long word = ~words[index] & (-1L >>> (63 - (from & 63)));
+		while(true) {
+			if(word != 0) return (index << 6) + 63 - Long.numberOfLeadingZeros(word);
+			if(index-- == 0) return -1;
+			word = ~words[index];
+		}
+	}
+	
+	/**
+	 * Returns the index of the first used block at or after the given block;
+	 * otherwise -1.
+	 * 
+	 * @param   from
+	 *          An {@code int} value representing the block index to start from.
+	 * @return  An {@code int} value representing the index of the next used
+	 *          block; otherwise -1.
+	 */
+	public int nextSetBit(int from) {
+		if(from >= numBlocks) return -1;
+		
+		int index = from >>> 6;
+		long word = words[index] & (-1L << from);
+		while(true) {
+			if(word != 0) return (index << 6) + Long.numberOfTrailingZeros(word);
+			if(++index == words.length) return -1;
+			word = words[index];
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the bitmap has changed since it was last written
+	 * to the disk; otherwise {@code false}.
+	 * 
+	 * @return  Returns {@code true} if the bitmap has unwritten changes;
+	 *          otherwise {@code false}.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+	
+	/**
+	 * Writes the bitmap blocks that have changed since they were last
+	 * written to the given disk. Block {@code n} is recorded in bit
+	 * {@code n % 8} of byte {@code n / 8} of the bitmap.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the bitmap.
+	 * @param   bitmapStart
+	 *          An {@code int} for the first bitmap block on the disk.
+	 */
+	public void flush(BlockDevice disk, int bitmapStart) {
+		if(!dirty) return;
+		
+		int bytesPerBlock = bitsPerBlock / 8;
+		byte[] data = new byte[bytesPerBlock];
+		for(int i = 0; i < dirtyBlocks.length; i++) {
+			if(!dirtyBlocks[i]) continue;
+			
+			// Unpack the words covered by this bitmap block.
+			for(int j = 0; j < bytesPerBlock; j++) {
+				long bit = (long)i * bitsPerBlock + 8L * j;
+				data[j] = (bit < numBlocks ? (byte)(words[(int)(bit >>> 6)] >>> (bit & 63)) : 0);
+			}
+			disk.writeBlock(bitmapStart + i, data);
+			dirtyBlocks[i] = false;
+		}
+		dirty = false;
+	}
+}
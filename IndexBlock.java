@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+
+
+/**
+ * IndexBlock.java
+ * The index block of a file on an indexed disk, laid out like an inode.
+ * <p>
+ * The block starts with the number of data blocks in the file, followed by
+ * {@code NUM_DIRECT} direct pointers, one single-indirect pointer and one
+ * double-indirect pointer. An indirect block is a full block of pointers.
+ * Finding the block that holds a given file offset reads at most two
+ * indirect blocks, however large the file is.
+ * 
+ */
+public class IndexBlock {
+	protected final static int NUM_DIRECT = 10;
+	private final static int COUNT_SIZE = 4;
+	private final static int DIRECT_OFFSET = COUNT_SIZE;
+	private final static int SINGLE_OFFSET = DIRECT_OFFSET + NUM_DIRECT * DiskInterface.POINTER_SIZE;
+	private final static int DOUBLE_OFFSET = SINGLE_OFFSET + DiskInterface.POINTER_SIZE;
+	private BlockDevice disk;
+	private int perBlock;
+	private int block;
+	private byte[] inode;
+	private int numBlocks;
+	
+	
+	/**
+	 * Constructs an {@code IndexBlock} by reading the index block at the
+	 * given location. A block of zeros reads as an empty file.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the file.
+	 * @param   block
+	 *          An {@code int} value representing the index block location on the
+	 *          disk.
+	 */
+	public IndexBlock(BlockDevice disk, int block) {
+		this.disk = disk;
+		this.perBlock = getPointersPerBlock();
+		this.block = block;
+		this.inode = disk.readBlock(block);
+		
+		for(int i = 0; i < COUNT_SIZE; i++)
+			numBlocks = (numBlocks << 8) | (inode[i] & 0xFF);
+	}
+	
+	/**
+	 * Returns the largest number of data blocks an index block can address.
+	 * 
+	 * @return  An {@code int} value representing the most data blocks in a file.
+	 */
+	public static int getMaxBlocks() {
+		long perBlock = getPointersPerBlock();
+		return (int)Math.min(Integer.MAX_VALUE, NUM_DIRECT + perBlock + perBlock * perBlock);
+	}
+	
+	/**
+	 * Returns the number of indirect blocks needed to address a file of the
+	 * given number of data blocks.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} value representing the number of data blocks.
+	 * @return  An {@code int} value representing the number of indirect blocks.
+	 */
+	public static int getIndirectBlockCount(int numBlocks) {
+		int perBlock = getPointersPerBlock();
+		if(numBlocks <= NUM_DIRECT) return 0;
+		if(numBlocks <= NUM_DIRECT + perBlock) return 1;
+		return 2 + (numBlocks - NUM_DIRECT - 1) / perBlock;
+	}
+	
+	/**
+	 * Returns the number of pointers held by an indirect block.
+	 * 
+	 * @return  An {@code int} value representing the pointers in a block.
+	 */
+	private static int getPointersPerBlock() {
+		return DiskInterface.BLOCK_SIZE / DiskInterface.POINTER_SIZE;
+	}
+	
+	/**
+	 * Returns the number of data blocks in the file.
+	 * 
+	 * @return  An {@code int} value representing the number of data blocks.
+	 */
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+	
+	/**
+	 * Returns the data block that holds the given block of the file.
+	 * 
+	 * @param   n
+	 *          An {@code int} value representing the position of the block in the
+	 *          file, starting at 0.
+	 * @return  An {@code int} value representing the data block on the disk.
+	 * @throws  IndexOutOfBoundsException
+	 *          If the file has no block {@code n}.
+	 */
+	public int getBlock(int n) {
+		if(n < 0 || n >= numBlocks) throw new IndexOutOfBoundsException("Block " + n + " is not in the file.");
+		
+		if(n < NUM_DIRECT) return DiskInterfaceUtils.getPointer(inode, DIRECT_OFFSET + n * DiskInterface.POINTER_SIZE);
+		
+		n -= NUM_DIRECT;
+		if(n < perBlock) return readPointer(DiskInterfaceUtils.getPointer(inode, SINGLE_OFFSET), n);
+		
+		n -= perBlock;
+		return readPointer(readPointer(DiskInterfaceUtils.getPointer(inode, DOUBLE_OFFSET), n / perBlock), n % perBlock);
+	}
+	
+	/**
+	 * Returns every data block of the file in order. Each indirect block is
+	 * read once.
+	 * 
+	 * @return  An {@code int[]} of the data blocks on the disk.
+	 */
+	public int[] getBlocks() {
+		int[] blocks = new int[numBlocks];
+		int n = 0;
+		
+		for(; n < numBlocks && n < NUM_DIRECT; n++)
+			blocks[n] = DiskInterfaceUtils.getPointer(inode, DIRECT_OFFSET + n * DiskInterface.POINTER_SIZE);
+		
+		if(n < numBlocks)
+			n = readPointers(DiskInterfaceUtils.getPointer(inode, SINGLE_OFFSET), blocks, n);
+		
+		if(n < numBlocks) {
+			byte[] outer = disk.readBlock(DiskInterfaceUtils.getPointer(inode, DOUBLE_OFFSET));
+			for(int i = 0; n < numBlocks; i++)
+				n = readPointers(DiskInterfaceUtils.getPointer(outer, i * DiskInterface.POINTER_SIZE), blocks, n);
+		}
+		
+		return blocks;
+	}
+	
+	/**
+	 * Returns the indirect blocks of the file: the single-indirect block,
+	 * the double-indirect block and the blocks it lists.
+	 * 
+	 * @return  An {@code ArrayList<Integer>} of the indirect blocks on the disk.
+	 */
+	public ArrayList<Integer> getIndirectBlocks() {
+		ArrayList<Integer> blocks = new ArrayList<Integer>();
+		if(numBlocks > NUM_DIRECT) blocks.add(DiskInterfaceUtils.getPointer(inode, SINGLE_OFFSET));
+		
+		if(numBlocks > NUM_DIRECT + perBlock) {
+			int outer = DiskInterfaceUtils.getPointer(inode, DOUBLE_OFFSET);
+			blocks.add(outer);
+			for(int i = 0; i < (numBlocks - NUM_DIRECT - 1) / perBlock; i++)
+				blocks.add(readPointer(outer, i));
+		}
+		
+		return blocks;
+	}
+	
+	/**
+	 * Adds a data block to the end of the file. Indirect blocks are taken
+	 * from the free space as they are needed. The index block itself is
+	 * not written until {@link #save()} is called.
+	 * 
+	 * @param   dataBlock
+	 *          An {@code int} value representing the data block on the disk.
+	 * @throws  IndexOutOfBoundsException
+	 *          If the file already holds {@link #getMaxBlocks()} blocks.
+	 */
+	public void append(int dataBlock) {
+		if(numBlocks >= getMaxBlocks()) throw new IndexOutOfBoundsException("The file is too large for an index block.");
+		
+		int n = numBlocks;
+		if(n < NUM_DIRECT)
+			DiskInterfaceUtils.putPointer(inode, DIRECT_OFFSET + n * DiskInterface.POINTER_SIZE, dataBlock);
+		else if((n -= NUM_DIRECT) < perBlock) {
+			if(n == 0) DiskInterfaceUtils.putPointer(inode, SINGLE_OFFSET, allocateIndirectBlock());
+			writePointer(DiskInterfaceUtils.getPointer(inode, SINGLE_OFFSET), n, dataBlock);
+		}
+		else {
+			n -= perBlock;
+			if(n == 0) DiskInterfaceUtils.putPointer(inode, DOUBLE_OFFSET, allocateIndirectBlock());
+			
+			int outer = DiskInterfaceUtils.getPointer(inode, DOUBLE_OFFSET);
+			if(n % perBlock == 0) writePointer(outer, n / perBlock, allocateIndirectBlock());
+			writePointer(readPointer(outer, n / perBlock), n % perBlock, dataBlock);
+		}
+		
+		numBlocks++;
+	}
+	
+	/**
+	 * Drops the data blocks of the file from the given position on. The
+	 * index block itself is not written until {@link #save()} is called.
+	 * 
+	 * @param   length
+	 *          An {@code int} value representing the number of data blocks to
+	 *          keep.
+	 * @return  An {@code ArrayList<Integer>} of the indirect blocks no longer
+	 *          needed, to be freed.
+	 */
+	public ArrayList<Integer> truncate(int length) {
+		ArrayList<Integer> unused = getIndirectBlocks();
+		for(int n = length; n < numBlocks && n < NUM_DIRECT; n++)
+			DiskInterfaceUtils.putPointer(inode, DIRECT_OFFSET + n * DiskInterface.POINTER_SIZE, 0);
+		
+		numBlocks = Math.min(numBlocks, length);
+		if(numBlocks <= NUM_DIRECT) DiskInterfaceUtils.putPointer(inode, SINGLE_OFFSET, 0);
+		if(numBlocks <= NUM_DIRECT + perBlock) DiskInterfaceUtils.putPointer(inode, DOUBLE_OFFSET, 0);
+		
+		unused.removeAll(getIndirectBlocks());
+		return unused;
+	}
+	
+	/**
+	 * Writes the index block to the disk.
+	 */
+	public void save() {
+		for(int i = COUNT_SIZE - 1, value = numBlocks; i >= 0; i--, value >>>= 8)
+			inode[i] = (byte)value;
+		disk.writeBlock(block, inode);
+	}
+	
+	/**
+	 * Takes a free block for an indirect block and clears it.
+	 * 
+	 * @return  An {@code int} value representing the block on the disk.
+	 */
+	private int allocateIndirectBlock() {
+		int indirect = DiskInterfaceUtils.allocateMetadataBlock();
+		disk.writeBlock(indirect, new byte[DiskInterface.BLOCK_SIZE]);
+		return indirect;
+	}
+	
+	/**
+	 * Reads one pointer from an indirect block.
+	 * 
+	 * @param   indirect
+	 *          An {@code int} value representing the indirect block on the disk.
+	 * @param   i
+	 *          An {@code int} value representing the position of the pointer.
+	 * @return  An {@code int} value representing the pointer.
+	 */
+	private int readPointer(int indirect, int i) {
+		byte[] pointer = new byte[DiskInterface.POINTER_SIZE];
+		disk.read(indirect, i * DiskInterface.POINTER_SIZE, pointer, 0, DiskInterface.POINTER_SIZE);
+		return DiskInterfaceUtils.getPointer(pointer, 0);
+	}
+	
+	/**
+	 * Writes one pointer to an indirect block.
+	 * 
+	 * @param   indirect
+	 *          An {@code int} value representing the indirect block on the disk.
+	 * @param   i
+	 *          An {@code int} value representing the position of the pointer.
+	 * @param   value
+	 *          An {@code int} value representing the pointer.
+	 */
+	private void writePointer(int indirect, int i, int value) {
+		byte[] pointer = new byte[DiskInterface.POINTER_SIZE];
+		DiskInterfaceUtils.putPointer(pointer, 0, value);
+		disk.write(indirect, i * DiskInterface.POINTER_SIZE, pointer, 0, DiskInterface.POINTER_SIZE);
+	}
+	
+	/**
+	 * Copies the pointers of an indirect block into the array, stopping at
+	 * the end of the file.
+	 * 
+	 * @param   indirect
+	 *          An {@code int} value representing the indirect block on the disk.
+	 * @param   blocks
+	 *          An {@code int[]} to hold the data blocks.
+	 * @param   n
+	 *          An {@code int} value representing the position of the first
+	 *          pointer in the array.
+	 * @return  An {@code int} value representing the position after the last
+	 *          pointer copied.
+	 */
+	private int readPointers(int indirect, int[] blocks, int n) {
+		byte[] pointers = disk.readBlock(indirect);
+		for(int i = 0; i < perBlock && n < blocks.length; i++)
+			blocks[n++] = DiskInterfaceUtils.getPointer(pointers, i * DiskInterface.POINTER_SIZE);
+		return n;
+	}
+}
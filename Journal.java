@@ -0,0 +1,462 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+
+/**
+ * Journal.java
+ * A write-ahead journal for the disk metadata, in front of another
+ * {@code BlockDevice}.
+ * <p>
+ * The writes made between {@link #begin()} and {@link #commit()} form one
+ * transaction and are held in memory. Committed transactions are gathered
+ * into a group and the whole group is logged at the next checkpoint: the
+ * log holds a descriptor listing the blocks, an image of each block, and a
+ * commit block with a CRC over both. Once the log is durable the images
+ * are written to their home locations and the log is retired by advancing
+ * the sequence number in the journal header. A block written as all zeros
+ * is logged without an image.
+ * <p>
+ * Mounting reads at most one group from the log and replays it only if
+ * its commit block is intact, so recovery never scans the rest of the
+ * disk. Writes outside a transaction go straight to the device; they are
+ * meant for file data that no directory record points to yet, and they
+ * are made durable by the same checkpoint before the log.
+ * 
+ */
+public class Journal implements BlockDevice {
+	protected final static int MIN_BLOCKS = 4;
+	private final static int HEADER_MAGIC = 0x4A524E4C;
+	private final static int DESCRIPTOR_MAGIC = 0x4A444553;
+	private final static int COMMIT_MAGIC = 0x4A434D54;
+	private final static int DESCRIPTOR_HEADER_SIZE = 12;
+	private final static int ENTRY_SIZE = 5;
+	private final static byte IMAGE = 0, ZEROS = 1;
+	private final byte[] zeroBlock;
+	private BlockDevice device;
+	private int blockSize;
+	private int start;
+	private int logBlocks;
+	private int sequence;
+	private HashMap<Integer, byte[]> transaction;
+	private HashMap<Integer, byte[]> pending;
+	private int replayedBlocks;
+	
+	
+	/**
+	 * Constructs a {@code Journal} kept in the given blocks of the device.
+	 * A new journal is cleared; an existing one is replayed.
+	 * 
+	 * @param   device
+	 *          The {@code BlockDevice} holding the disk.
+	 * @param   start
+	 *          An {@code int} for the first block of the journal.
+	 * @param   blocks
+	 *          An {@code int} for the number of blocks in the journal.
+	 * @param   format
+	 *          A {@code boolean} that is {@code true} to clear the journal of a
+	 *          new disk; {@code false} to replay the journal of an existing one.
+	 * @throws  IOException
+	 *          If a replayed group could not be made durable.
+	 * @throws  IllegalArgumentException
+	 *          If the journal is too small or an existing journal has no
+	 *          header.
+	 */
+	public Journal(BlockDevice device, int start, int blocks, boolean format) throws IOException {
+		if(blocks < MIN_BLOCKS) throw new IllegalArgumentException("The journal must have at least " + MIN_BLOCKS + " blocks.");
+		
+		this.device = device;
+		this.blockSize = device.getBlockSize();
+		this.start = start;
+		this.logBlocks = blocks - 1;
+		this.zeroBlock = new byte[blockSize];
+		this.pending = new HashMap<Integer, byte[]>();
+		
+		if(format) {
+			sequence = 1;
+			device.writeBlock(start + 1, zeroBlock);
+			writeHeader();
+		}
+		else {
+			ByteBuffer header = ByteBuffer.wrap(device.readBlock(start));
+			if(header.getInt() != HEADER_MAGIC) throw new IllegalArgumentException("The disk has no journal header.");
+			sequence = header.getInt();
+			replay();
+		}
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return device.getNumBlocks();}
+	public int getBlockSize()				{return blockSize;}
+	public int getReplayedBlocks()			{return replayedBlocks;}
+	
+	/**
+	 * Returns {@code true} if a transaction is open; otherwise {@code false}.
+	 * 
+	 * @return  Returns {@code true} if a transaction is open; otherwise
+	 *          {@code false}.
+	 */
+	public boolean isOpen() {
+		return transaction != null;
+	}
+	
+	/**
+	 * Opens a transaction. Every write until {@link #commit()} is applied
+	 * together or not at all.
+	 * 
+	 * @throws  IllegalStateException
+	 *          If a transaction is already open.
+	 */
+	public void begin() {
+		if(transaction != null) throw new IllegalStateException("A transaction is already open.");
+		transaction = new HashMap<Integer, byte[]>();
+	}
+	
+	/**
+	 * Closes the open transaction and adds it to the group logged at the
+	 * next checkpoint. The group is logged first if the transaction would
+	 * not fit beside it. A transaction too large for the journal on its own
+	 * is written in place, without the guarantee.
+	 * 
+	 * @throws  IOException
+	 *          If an earlier group could not be made durable.
+	 * @throws  IllegalStateException
+	 *          If no transaction is open.
+	 */
+	public void commit() throws IOException {
+		if(transaction == null) throw new IllegalStateException("No transaction is open.");
+		
+		HashMap<Integer, byte[]> committed = transaction;
+		transaction = null;
+		if(committed.isEmpty()) return;
+		
+		HashMap<Integer, byte[]> merged = new HashMap<Integer, byte[]>(pending);
+		merged.putAll(committed);
+		if(getLogSize(merged) <= logBlocks) {
+			pending = merged;
+			return;
+		}
+		
+		flush();
+		if(getLogSize(committed) <= logBlocks) pending = committed;
+		else {
+			writeHome(committed);
+			device.checkpoint();
+		}
+	}
+	
+	@Override
+	public byte read(int block, int location) {
+		byte[] image = find(block);
+		return (image != null ? image[location] : device.read(block, location));
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		byte[] image = find(block);
+		if(image != null) System.arraycopy(image, 0, dst, 0, blockSize);
+		else device.readBlock(block, dst);
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		byte[] image = find(block);
+		if(image != null) System.arraycopy(image, location, dst, offset, length);
+		else device.read(block, location, dst, offset, length);
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		byte[] image = find(block);
+		if(image != null) dst.put(image, location, dst.remaining());
+		else device.read(block, location, dst);
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		HashMap<Integer, byte[]> overlay = overlay(block, false);
+		if(overlay != null) image(overlay, block, false)[location] = value;
+		else device.write(block, location, value);
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		boolean zeros = (length == blockSize && isZero(src, offset));
+		HashMap<Integer, byte[]> overlay = overlay(block, zeros);
+		if(overlay == null) device.write(block, location, src, offset, length);
+		else if(zeros) overlay.put(block, zeroBlock);
+		else System.arraycopy(src, offset, image(overlay, block, length == blockSize), location, length);
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		HashMap<Integer, byte[]> overlay = overlay(block, false);
+		if(overlay != null) src.get(image(overlay, block, src.remaining() == blockSize), location, src.remaining());
+		else device.write(block, location, src);
+	}
+	
+	/**
+	 * Logs the committed transactions and makes the disk durable.
+	 */
+	@Override
+	public void checkpoint() throws IOException {
+		flush();
+		device.checkpoint();
+	}
+	
+	/**
+	 * Logs the committed transactions and closes the device. A transaction
+	 * that is still open is discarded.
+	 */
+	@Override
+	public void close() throws IOException {
+		transaction = null;
+		flush();
+		device.close();
+	}
+	
+	/**
+	 * Returns the journaled image of the given block, or {@code null} if the
+	 * device holds the latest content.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  A {@code byte[]} holding the block content; otherwise
+	 *          {@code null}.
+	 */
+	private byte[] find(int block) {
+		byte[] image = (transaction != null ? transaction.get(block) : null);
+		return (image != null ? image : pending.get(block));
+	}
+	
+	/**
+	 * Returns the images that a write to the given block belongs in: the
+	 * open transaction, or the logged group if it already holds the block
+	 * so that the group never writes back older content; otherwise
+	 * {@code null}.
+	 * <p>
+	 * A write outside a transaction must not grow the group past the size
+	 * checked when it was committed. If the group holds the block as zeros
+	 * without an image, and the write would give it one, the group is
+	 * logged first and the write goes to the device.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   zeros
+	 *          A {@code boolean} that is {@code true} if the write leaves the
+	 *          whole block as zeros.
+	 * @return  A {@code HashMap<Integer, byte[]>} of block images; otherwise
+	 *          {@code null}.
+	 */
+	private HashMap<Integer, byte[]> overlay(int block, boolean zeros) {
+		if(transaction != null) return transaction;
+		
+		byte[] image = pending.get(block);
+		if(image == null) return null;
+		if(image == zeroBlock && !zeros) {
+			try {flush();}
+			catch(IOException e) {throw new UncheckedIOException(e);}
+			return null;
+		}
+		return pending;
+	}
+	
+	/**
+	 * Returns a private, writable image of the block in the given images.
+	 * 
+	 * @param   overlay
+	 *          The {@code HashMap<Integer, byte[]>} of block images.
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   whole
+	 *          A {@code boolean} that is {@code true} if the whole block is about to
+	 *          be overwritten, so its content need not be read.
+	 * @return  A {@code byte[]} holding the block image.
+	 */
+	private byte[] image(HashMap<Integer, byte[]> overlay, int block, boolean whole) {
+		byte[] image = overlay.get(block);
+		if(image == null || image == zeroBlock) {
+			byte[] copy = new byte[blockSize];
+			if(image == null && !whole) readBlock(block, copy);
+			overlay.put(block, copy);
+			image = copy;
+		}
+		return image;
+	}
+	
+	/**
+	 * Returns {@code true} if the block of data starting at the given offset
+	 * is all zeros; otherwise {@code false}.
+	 * 
+	 * @param   data
+	 *          A {@code byte[]} holding the block.
+	 * @param   offset
+	 *          An {@code int} value representing the first byte of the block.
+	 * @return  Returns {@code true} if every byte is zero; otherwise
+	 *          {@code false}.
+	 */
+	private boolean isZero(byte[] data, int offset) {
+		for(int i = offset; i < offset + blockSize; i++)
+			if(data[i] != 0) return false;
+		return true;
+	}
+	
+	/**
+	 * Returns the number of log blocks needed to hold the given images.
+	 * 
+	 * @param   images
+	 *          The {@code HashMap<Integer, byte[]>} of block images.
+	 * @return  An {@code int} value representing the number of log blocks.
+	 */
+	private int getLogSize(HashMap<Integer, byte[]> images) {
+		int count = 0;
+		for(byte[] image : images.values())
+			if(image != zeroBlock) count++;
+		return getDescriptorBlocks(images.size()) + count + 1;
+	}
+	
+	/**
+	 * Returns the number of blocks taken by a descriptor of the given
+	 * number of entries.
+	 * 
+	 * @param   entries
+	 *          An {@code int} value representing the number of logged blocks.
+	 * @return  An {@code int} value representing the number of descriptor
+	 *          blocks.
+	 */
+	private int getDescriptorBlocks(int entries) {
+		return (DESCRIPTOR_HEADER_SIZE + entries * ENTRY_SIZE + blockSize - 1) / blockSize;
+	}
+	
+	/**
+	 * Logs the group of committed transactions, writes the images to their
+	 * home locations and retires the log. The device is made durable after
+	 * each of the three steps, so the home locations are never written
+	 * before the log is complete.
+	 * 
+	 * @throws  IOException
+	 *          If the device could not be made durable.
+	 * @throws  IllegalStateException
+	 *          If the group has grown too large for the log, which would
+	 *          write past the journal.
+	 */
+	private void flush() throws IOException {
+		if(pending.isEmpty()) return;
+		if(getLogSize(pending) > logBlocks) throw new IllegalStateException("The journal group of " + getLogSize(pending) + " blocks does not fit in a log of " + logBlocks + " blocks.");
+		
+		TreeMap<Integer, byte[]> images = new TreeMap<Integer, byte[]>(pending);
+		int descriptorBlocks = getDescriptorBlocks(images.size());
+		ByteBuffer descriptor = ByteBuffer.allocate(descriptorBlocks * blockSize);
+		descriptor.putInt(DESCRIPTOR_MAGIC).putInt(sequence).putInt(images.size());
+		for(Integer block : images.keySet())
+			descriptor.putInt(block).put(images.get(block) == zeroBlock ? ZEROS : IMAGE);
+		
+		// Write the descriptor and the images to the log.
+		CRC32 crc = new CRC32();
+		crc.update(descriptor.array());
+		for(int i = 0; i < descriptorBlocks; i++)
+			device.write(start + 1 + i, 0, descriptor.array(), i * blockSize, blockSize);
+		
+		int logBlock = start + 1 + descriptorBlocks;
+		for(byte[] image : images.values()) {
+			if(image == zeroBlock) continue;
+			crc.update(image);
+			device.writeBlock(logBlock++, image);
+		}
+		
+		// The group is committed once the commit block is durable.
+		ByteBuffer commit = ByteBuffer.allocate(blockSize);
+		commit.putInt(COMMIT_MAGIC).putInt(sequence).putLong(crc.getValue());
+		device.writeBlock(logBlock, commit.array());
+		device.checkpoint();
+		
+		writeHome(pending);
+		device.checkpoint();
+		
+		sequence++;
+		writeHeader();
+		device.checkpoint();
+		pending = new HashMap<Integer, byte[]>();
+	}
+	
+	/**
+	 * Replays the group in the log if it was committed but not retired.
+	 * 
+	 * @throws  IOException
+	 *          If the device could not be made durable.
+	 */
+	private void replay() throws IOException {
+		ByteBuffer first = ByteBuffer.wrap(device.readBlock(start + 1));
+		if(first.getInt() != DESCRIPTOR_MAGIC || first.getInt() != sequence) return;
+		
+		int count = first.getInt();
+		if(count < 0 || count > getNumBlocks()) return;
+		int descriptorBlocks = getDescriptorBlocks(count);
+		if(descriptorBlocks + 1 > logBlocks) return;
+		
+		// Read the descriptor and check that it lists real blocks.
+		ByteBuffer descriptor = ByteBuffer.allocate(descriptorBlocks * blockSize);
+		for(int i = 0; i < descriptorBlocks; i++)
+			device.read(start + 1 + i, 0, descriptor.array(), i * blockSize, blockSize);
+		descriptor.position(DESCRIPTOR_HEADER_SIZE);
+		
+		int[] blocks = new int[count];
+		byte[] kinds = new byte[count];
+		int numImages = 0;
+		for(int i = 0; i < count; i++) {
+			blocks[i] = descriptor.getInt();
+			kinds[i] = descriptor.get();
+			if(blocks[i] < 0 || blocks[i] >= getNumBlocks()) return;
+			if(kinds[i] == IMAGE) numImages++;
+		}
+		if(descriptorBlocks + numImages + 1 > logBlocks) return;
+		
+		// Read the images and check them against the commit block.
+		CRC32 crc = new CRC32();
+		crc.update(descriptor.array());
+		ArrayList<byte[]> images = new ArrayList<byte[]>();
+		int logBlock = start + 1 + descriptorBlocks;
+		for(int i = 0; i < numImages; i++) {
+			byte[] image = device.readBlock(logBlock++);
+			crc.update(image);
+			images.add(image);
+		}
+		
+		ByteBuffer commit = ByteBuffer.wrap(device.readBlock(logBlock));
+		if(commit.getInt() != COMMIT_MAGIC || commit.getInt() != sequence || commit.getLong() != crc.getValue()) return;
+		
+		// Write the group to its home locations and retire it.
+		for(int i = 0, next = 0; i < count; i++)
+			device.writeBlock(blocks[i], kinds[i] == IMAGE ? images.get(next++) : zeroBlock);
+		device.checkpoint();
+		
+		sequence++;
+		writeHeader();
+		device.checkpoint();
+		replayedBlocks = count;
+	}
+	
+	/**
+	 * Writes the given images to their home locations.
+	 * 
+	 * @param   images
+	 *          The {@code HashMap<Integer, byte[]>} of block images.
+	 */
+	private void writeHome(HashMap<Integer, byte[]> images) {
+		for(Integer block : images.keySet())
+			device.writeBlock(block, images.get(block));
+	}
+	
+	/**
+	 * Writes the journal header with the sequence number of the next group.
+	 */
+	private void writeHeader() {
+		ByteBuffer header = ByteBuffer.allocate(blockSize);
+		header.putInt(HEADER_MAGIC).putInt(sequence);
+		device.writeBlock(start, header.array());
+	}
+}
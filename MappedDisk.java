@@ -0,0 +1,153 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * MappedDisk.java
+ * A {@code BlockDevice} kept in a disk image file that is mapped into memory, so
+ * the disk survives restarts and opens without reading the whole file.
+ * <p>
+ * The image is mapped in segments of whole blocks, since a single mapping
+ * is limited to 2 GB. Written segments are remembered and forced to the
+ * file at the next checkpoint.
+ * 
+ */
+public class MappedDisk implements BlockDevice {
+	private final static long SEGMENT_BYTES = 1L << 30;
+	private int numBlocks;
+	private int blockSize;
+	private RandomAccessFile file;
+	private MappedByteBuffer[] segments;
+	private boolean[] dirtySegments;
+	private int blocksPerSegment;
+	
+	
+	/**
+	 * Constructs a {@code MappedDisk} over the given image file, creating or
+	 * growing the file to hold {@code numBlocks} blocks. Existing content is
+	 * kept.
+	 * 
+	 * @param   image
+	 *          The {@code File} holding the disk image.
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the Disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @throws  IOException
+	 *          If the image file could not be opened or mapped.
+	 */
+	public MappedDisk(File image, int numBlocks, int blockSize) throws IOException {
+		this.numBlocks = numBlocks;
+		this.blockSize = blockSize;
+		
+		long size = (long)numBlocks * blockSize;
+		this.file = new RandomAccessFile(image, "rw");
+		if(file.length() < size) file.setLength(size);
+		
+		this.blocksPerSegment = (int)Math.max(1, SEGMENT_BYTES / blockSize);
+		int numSegments = (numBlocks + blocksPerSegment - 1) / blocksPerSegment;
+		this.segments = new MappedByteBuffer[numSegments];
+		this.dirtySegments = new boolean[numSegments];
+		
+		FileChannel channel = file.getChannel();
+		for(int i = 0; i < numSegments; i++) {
+			long start = (long)i * blocksPerSegment * blockSize;
+			segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(size - start, (long)blocksPerSegment * blockSize));
+		}
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return numBlocks;}
+	public int getBlockSize()				{return blockSize;}
+	
+	@Override
+	public byte read(int block, int location) {
+		return segment(block).get(offset(block, location));
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		segment(block).get(offset(block, 0), dst, 0, blockSize);
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		segment(block).get(offset(block, location), dst, offset, length);
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		dst.put(segment(block).slice(offset(block, location), dst.remaining()));
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		segment(block).put(offset(block, location), value);
+		dirtySegments[block / blocksPerSegment] = true;
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		segment(block).put(offset(block, location), src, offset, length);
+		dirtySegments[block / blocksPerSegment] = true;
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		int length = src.remaining();
+		segment(block).put(offset(block, location), src, src.position(), length);
+		src.position(src.position() + length);
+		dirtySegments[block / blocksPerSegment] = true;
+	}
+	
+	/**
+	 * Forces the segments written since the last checkpoint to the image
+	 * file.
+	 */
+	@Override
+	public void checkpoint() throws IOException {
+		for(int i = 0; i < segments.length; i++) {
+			if(dirtySegments[i]) {
+				segments[i].force();
+				dirtySegments[i] = false;
+			}
+		}
+	}
+	
+	/**
+	 * Forces any unsaved changes to the image file and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		checkpoint();
+		file.close();
+	}
+	
+	/**
+	 * Returns the mapped segment holding the given block.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  The {@code MappedByteBuffer} holding the block.
+	 */
+	private MappedByteBuffer segment(int block) {
+		return segments[block / blocksPerSegment];
+	}
+	
+	/**
+	 * Returns the position of a byte of the given block within its segment.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   location
+	 *          An {@code int} value representing the byte within the block.
+	 * @return  An {@code int} value representing the position in the segment.
+	 */
+	private int offset(int block, int location) {
+		return (block % blocksPerSegment) * blockSize + location;
+	}
+}
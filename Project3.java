@@ -1,3 +1,4 @@
+import java.util.ArrayList;
 import java.util.Scanner;
 
 
@@ -8,34 +9,88 @@ import java.util.Scanner;
 public class Project3 {
 	protected static Scanner scanner = new Scanner(System.in);
 	protected static boolean debugMode = false;
+	private final static String USAGE = "Usage: java Project3 [chained | indexed | contiguous [first | best | worst | next]] [blocks=<count>] [blocksize=<bytes>] [image=<path>] [device=lazy | heap | direct | channel | mapped | sparse] [cache=<blocks>] [journal=<blocks>] [chain=inline | table]";
 	
 	public static void main(String[] args) {
 		
-		if(args.length > 0)
+		// Separate the key=value disk options from the other arguments.
+		DiskOptions diskOptions = new DiskOptions();
+		ArrayList<String> params = new ArrayList<String>();
+		for(String arg : args) {
+			if(arg.indexOf('=') < 0) params.add(arg);
+			else if(!diskOptions.parse(arg)) {
+				System.out.println("Invalid disk option: " + arg);
+				System.out.println(USAGE);
+				return;
+			}
+		}
+		
+		if(params.size() > 0)
 			// Start Simulation if Allocation Type Provided
-			switch(args[0].toLowerCase()) {
+			switch(params.get(0).toLowerCase()) {
 			case "chained":
-				try {new DiskInterface(AllocationType.CHAINED);}
+				try {new DiskInterface(AllocationType.CHAINED, FitPolicy.FIRST_FIT, diskOptions);}
 				catch(Exception e) {e.printStackTrace();}
 				break;
 			case "indexed":
-				try {new DiskInterface(AllocationType.INDEXED);}
+				try {new DiskInterface(AllocationType.INDEXED, FitPolicy.FIRST_FIT, diskOptions);}
 				catch(Exception e) {e.printStackTrace();}
 				break;
 			case "contiguous":
-				try {new DiskInterface(AllocationType.CONTIGUOUS);}
+				// Use the Fit Policy if Provided
+				FitPolicy fitPolicy = (params.size() > 1 ? parseFitPolicy(params.get(1)) : FitPolicy.FIRST_FIT);
+				if(fitPolicy == null) {
+					System.out.println("Invalid fit policy.");
+					System.out.println(USAGE);
+					break;
+				}
+				try {new DiskInterface(AllocationType.CONTIGUOUS, fitPolicy, diskOptions);}
 				catch(Exception e) {e.printStackTrace();}
 				break;
 			default:
 				System.out.println("Invalid allocation type.");
-				System.out.println("Usage: java Project3 [chained | indexed | contiguous]");
+				System.out.println(USAGE);
 			}
 		else {
 			// Prompt for Allocation Type
 			String[] header = {"Select the disk allocation method."};
 			String[] options = {"Chained", "Indexed", "Contiguous"};
-			try {new DiskInterface(AllocationType.values()[DiskInterfaceUtils.optionChooser(header, options, 25) - 1]);}
+			AllocationType type = AllocationType.values()[DiskInterfaceUtils.optionChooser(header, options, 25) - 1];
+			
+			// Prompt for Fit Policy
+			FitPolicy fitPolicy = FitPolicy.FIRST_FIT;
+			if(type == AllocationType.CONTIGUOUS) {
+				String[] policyHeader = {"Select the contiguous fit policy."};
+				String[] policyOptions = {"First fit", "Best fit", "Worst fit", "Next fit"};
+				fitPolicy = FitPolicy.values()[DiskInterfaceUtils.optionChooser(policyHeader, policyOptions, 25) - 1];
+			}
+			
+			try {new DiskInterface(type, fitPolicy, diskOptions);}
 			catch(Exception e) {e.printStackTrace();}
 		}
 	}
+	
+	/**
+	 * Returns the {@code FitPolicy} named by the given argument; otherwise
+	 * {@code null}.
+	 * 
+	 * @param   arg
+	 *          A {@code String} value naming the fit policy, e.g. "best".
+	 * @return  The matching {@code FitPolicy}; otherwise {@code null}.
+	 * @see     FitPolicy
+	 */
+	private static FitPolicy parseFitPolicy(String arg) {
+		switch(arg.toLowerCase()) {
+		case "first":
+			return FitPolicy.FIRST_FIT;
+		case "best":
+			return FitPolicy.BEST_FIT;
+		case "worst":
+			return FitPolicy.WORST_FIT;
+		case "next":
+			return FitPolicy.NEXT_FIT;
+		default:
+			return null;
+		}
+	}
 }
@@ -0,0 +1,128 @@
+import java.util.function.IntUnaryOperator;
+
+
+/**
+ * Readahead.java
+ * Fetches the blocks of a file into the block cache ahead of a reader that
+ * reads the file in order, so the reader finds each block already cached.
+ * <p>
+ * The addresses of the blocks ahead are found from the index block, the
+ * chain table or the extent of the file, without reading the blocks
+ * themselves, and each batch of them is fetched in one request. The window
+ * of blocks fetched ahead grows by one block each time a fetched block is
+ * found in the cache, and halves when a fetched block was evicted before it
+ * was read or the reader jumps to another part of the file. A chained file
+ * that keeps its links in its blocks has no addresses to find ahead, so it
+ * is not read ahead.
+ * 
+ */
+public class Readahead {
+	private final static int START_WINDOW = 4;
+	private final static int MAX_WINDOW = 64;
+	
+	private BlockCache cache;
+	private IntUnaryOperator address;
+	private int numBlocks;
+	private int maxWindow;
+	private int window;
+	private int last;
+	private int end;
+	private int[] batch;
+	private long hits, misses;
+	
+	
+	/**
+	 * Constructs a {@code Readahead} for a file of the given number of
+	 * blocks. The window never grows past a quarter of the cache, so one
+	 * reader does not push out the blocks of the others.
+	 * 
+	 * @param   cache
+	 *          The {@code BlockCache} to fetch the blocks into.
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks in the file.
+	 * @param   address
+	 *          An {@code IntUnaryOperator} giving the disk block that holds a
+	 *          block of the file. It is asked for the blocks in order.
+	 */
+	public Readahead(BlockCache cache, int numBlocks, IntUnaryOperator address) {
+		this.cache = cache;
+		this.address = address;
+		this.numBlocks = numBlocks;
+		this.maxWindow = Math.max(1, Math.min(MAX_WINDOW, cache.getCapacity() / 4));
+		this.window = Math.min(START_WINDOW, maxWindow);
+		this.last = -1;
+		this.batch = new int[maxWindow];
+	}
+	
+	/**
+	 * Returns a {@code Readahead} for a file on the given device, or
+	 * {@code null} if the device is not the cached disk or the file has no
+	 * addresses to find ahead.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} holding the file.
+	 * @param   size
+	 *          A {@code long} value representing the number of bytes in the file.
+	 * @param   address
+	 *          An {@code IntUnaryOperator} giving the disk block that holds a
+	 *          block of the file.
+	 * @return  The {@code Readahead} for the file, or {@code null}.
+	 */
+	public static Readahead forFile(BlockDevice disk, long size, IntUnaryOperator address) {
+		if(DiskInterface.cache == null || disk != DiskInterface.disk) return null;
+		if(DiskInterface.type == AllocationType.CHAINED && DiskInterface.chainTable == null) return null;
+		
+		int payload = (DiskInterface.type == AllocationType.CHAINED ? DiskInterface.CHAINED_BLOCK_SIZE : DiskInterface.BLOCK_SIZE);
+		return new Readahead(DiskInterface.cache, (int)((size + payload - 1) / payload), address);
+	}
+	
+	// Getter functions.
+	public int getWindow()					{return window;}
+	public long getHits()					{return hits;}
+	public long getMisses()					{return misses;}
+	
+	/**
+	 * Notes that a block of the file is about to be read and fetches the
+	 * blocks after it if the file is being read in order.
+	 * 
+	 * @param   n
+	 *          An {@code int} value representing the position of the block in the
+	 *          file, starting at 0.
+	 * @param   block
+	 *          An {@code int} value representing the block on the disk.
+	 */
+	public void access(int n, int block) {
+		if(n == last) return;
+		
+		if(n != last + 1) {
+			// A jump: stop reading ahead until the reader goes on in order from here.
+			window = Math.max(window / 2, 1);
+			last = n;
+			end = n + 1;
+			return;
+		}
+		
+		if(n < end) {
+			// The block was fetched ahead: still cached is a hit, already evicted a miss.
+			if(cache.contains(block)) {
+				hits++;
+				window = Math.min(window + 1, maxWindow);
+			}
+			else {
+				misses++;
+				window = Math.max(window / 2, 1);
+			}
+		}
+		last = n;
+		
+		// Fetch the next batch once half of the window has been read.
+		if(end - (n + 1) > window / 2) return;
+		int from = Math.max(end, n + 1);
+		int to = Math.min(n + 1 + window, numBlocks);
+		int count = 0;
+		for(int i = from; i < to; i++)
+			batch[count++] = address.applyAsInt(i);
+		if(count > 0) cache.prefetch(batch, count);
+		end = Math.max(end, to);
+	}
+}
@@ -0,0 +1,399 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+
+
+/**
+ * SparseImageDisk.java
+ * A {@code BlockDevice} kept in a sparse disk image file, which stores only
+ * the blocks that are in use.
+ * <p>
+ * The file holds a header, a sorted index of the stored blocks, and the
+ * content of those blocks in index order. Opening the image reads only the
+ * header and the index; a block is read from the file the first time it
+ * is needed, and a block that is not stored reads as zeros. Written blocks
+ * are held in memory until the next checkpoint. If every one of them is
+ * already stored, or need not be, the checkpoint writes them over their
+ * stored copies. Otherwise the index changes, and the checkpoint writes a
+ * new image beside the old one and moves it into place, so the image on
+ * disk is always complete. Blocks freed since the image was last written
+ * whole keep their place in the file until it is next written whole.
+ * 
+ */
+public class SparseImageDisk implements BlockDevice {
+	private final static int MAGIC = 0x56445350;
+	private final static int VERSION = 1;
+	private final static int HEADER_SIZE = 20;
+	private int numBlocks;
+	private int blockSize;
+	private File image;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int[] index;
+	private long dataStart;
+	private HashMap<Integer, byte[]> written;
+	private IntPredicate allocated;
+	
+	
+	/**
+	 * Constructs a {@code SparseImageDisk} over the given image file. A
+	 * missing or empty file is a new disk of zeros and is written at the
+	 * first checkpoint.
+	 * 
+	 * @param   image
+	 *          The {@code File} holding the sparse disk image.
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @throws  IOException
+	 *          If the image file could not be read.
+	 * @throws  IllegalArgumentException
+	 *          If the file is not a sparse image of the given geometry.
+	 */
+	public SparseImageDisk(File image, int numBlocks, int blockSize) throws IOException {
+		this.numBlocks = numBlocks;
+		this.blockSize = blockSize;
+		this.image = image;
+		this.index = new int[0];
+		this.written = new HashMap<Integer, byte[]>();
+		
+		if(image.length() > 0) {
+			open();
+			if(numBlocks != readInt(12) || blockSize != readInt(8)) throw new IllegalArgumentException("The sparse image is for a disk of another geometry.");
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the given file starts like a sparse disk
+	 * image; otherwise {@code false}.
+	 * 
+	 * @param   image
+	 *          The {@code File} to check.
+	 * @return  Returns {@code true} if the file is a sparse image; otherwise
+	 *          {@code false}.
+	 * @throws  IOException
+	 *          If the file could not be read.
+	 */
+	public static boolean isSparseImage(File image) throws IOException {
+		if(image.length() < HEADER_SIZE) return false;
+		try(RandomAccessFile file = new RandomAccessFile(image, "r")) {
+			return file.readInt() == MAGIC;
+		}
+	}
+	
+	/**
+	 * Reads the superblock from block 0 of the given sparse image.
+	 * 
+	 * @param   image
+	 *          The {@code File} holding the sparse disk image.
+	 * @return  The {@code Superblock} stored in the image.
+	 * @throws  IOException
+	 *          If the image file could not be read.
+	 * @throws  IllegalArgumentException
+	 *          If the image does not hold a superblock.
+	 */
+	public static Superblock readSuperblock(File image) throws IOException {
+		int numBlocks, blockSize;
+		try(RandomAccessFile file = new RandomAccessFile(image, "r")) {
+			if(file.readInt() != MAGIC) throw new IllegalArgumentException("The disk image is not sparse.");
+			file.readInt();
+			blockSize = file.readInt();
+			numBlocks = file.readInt();
+		}
+		
+		SparseImageDisk disk = new SparseImageDisk(image, numBlocks, blockSize);
+		try {
+			ByteBuffer data = ByteBuffer.allocate(Superblock.SIZE);
+			disk.read(0, 0, data);
+			data.flip();
+			return new Superblock(data);
+		}
+		finally {disk.close();}
+	}
+	
+	// Getter functions.
+	public int getNumBlocks()				{return numBlocks;}
+	public int getBlockSize()				{return blockSize;}
+	
+	/**
+	 * Returns the number of blocks stored in the image file.
+	 * 
+	 * @return  An {@code int} value representing the number of stored blocks.
+	 */
+	public int getStoredBlocks() {
+		return index.length;
+	}
+	
+	/**
+	 * Sets the test for the blocks in use. Blocks that fail it are left out
+	 * of the image at the next checkpoint. Blocks of zeros are always left
+	 * out.
+	 * 
+	 * @param   allocated
+	 *          An {@code IntPredicate} that is {@code true} for a block in use.
+	 */
+	public void setAllocation(IntPredicate allocated) {
+		this.allocated = allocated;
+	}
+	
+	@Override
+	public byte read(int block, int location) {
+		byte[] value = new byte[1];
+		read(block, location, value, 0, 1);
+		return value[0];
+	}
+	
+	@Override
+	public void readBlock(int block, byte[] dst) {
+		read(block, 0, dst, 0, blockSize);
+	}
+	
+	@Override
+	public void read(int block, int location, byte[] dst, int offset, int length) {
+		byte[] data = written.get(block);
+		if(data != null) System.arraycopy(data, location, dst, offset, length);
+		else readStored(block, location, ByteBuffer.wrap(dst, offset, length));
+	}
+	
+	@Override
+	public void read(int block, int location, ByteBuffer dst) {
+		byte[] data = written.get(block);
+		if(data != null) dst.put(data, location, dst.remaining());
+		else readStored(block, location, dst);
+	}
+	
+	@Override
+	public void write(int block, int location, byte value) {
+		image(block, false)[location] = value;
+	}
+	
+	@Override
+	public void write(int block, int location, byte[] src, int offset, int length) {
+		System.arraycopy(src, offset, image(block, length == blockSize), location, length);
+	}
+	
+	@Override
+	public void write(int block, int location, ByteBuffer src) {
+		src.get(image(block, src.remaining() == blockSize), location, src.remaining());
+	}
+	
+	/**
+	 * Writes the blocks written since the last checkpoint to the image. They
+	 * are written in place when the index does not change; otherwise a new
+	 * image holding the blocks in use is moved over the old one.
+	 */
+	@Override
+	public void checkpoint() throws IOException {
+		if(written.isEmpty()) return;
+		if(writeInPlace()) return;
+		
+		// Keep the stored blocks that are still in use and the written blocks that are not empty.
+		TreeSet<Integer> kept = new TreeSet<Integer>();
+		for(int block : index)
+			if(!written.containsKey(block) && isAllocated(block)) kept.add(block);
+		for(Integer block : written.keySet())
+			if(isAllocated(block) && !isZero(written.get(block))) kept.add(block);
+		
+		File temp = new File(image.getPath() + ".tmp");
+		try(FileOutputStream stream = new FileOutputStream(temp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(blockSize);
+			out.writeInt(numBlocks);
+			out.writeInt(kept.size());
+			for(int block : kept)
+				out.writeInt(block);
+			
+			byte[] data = new byte[blockSize];
+			for(int block : kept) {
+				readBlock(block, data);
+				out.write(data);
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		
+		// Switch to the new image.
+		if(file != null) file.close();
+		Files.move(temp.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		open();
+		written.clear();
+	}
+	
+	/**
+	 * Writes the written blocks over their stored copies and makes them
+	 * durable, if every written block is stored or is empty or free and so
+	 * need not be stored.
+	 * 
+	 * @return  Returns {@code true} if the blocks were written in place;
+	 *          otherwise {@code false} if the index must change.
+	 * @throws  IOException
+	 *          If the image file could not be written.
+	 */
+	private boolean writeInPlace() throws IOException {
+		if(file == null) return false;
+		for(Integer block : written.keySet())
+			if(Arrays.binarySearch(index, block) < 0 && isAllocated(block) && !isZero(written.get(block))) return false;
+		
+		for(Integer block : written.keySet()) {
+			int slot = Arrays.binarySearch(index, block);
+			if(slot < 0) continue;
+			
+			ByteBuffer data = ByteBuffer.wrap(written.get(block));
+			long position = dataStart + (long)slot * blockSize;
+			while(data.hasRemaining())
+				position += channel.write(data, position);
+		}
+		channel.force(false);
+		written.clear();
+		return true;
+	}
+	
+	/**
+	 * Writes any unsaved changes and closes the image file.
+	 */
+	@Override
+	public void close() throws IOException {
+		checkpoint();
+		if(file != null) file.close();
+	}
+	
+	/**
+	 * Opens the image file and reads its index.
+	 * 
+	 * @throws  IOException
+	 *          If the image file could not be read.
+	 * @throws  IllegalArgumentException
+	 *          If the file is not a sparse image.
+	 */
+	private void open() throws IOException {
+		file = new RandomAccessFile(image, "rw");
+		channel = file.getChannel();
+		
+		DataInputStream in = new DataInputStream(Channels.newInputStream(channel.position(0)));
+		if(in.readInt() != MAGIC || in.readInt() != VERSION) throw new IllegalArgumentException("The disk image is not a sparse image.");
+		in.readInt();
+		in.readInt();
+		
+		// Stream the index in; the blocks stay in the file.
+		index = new int[in.readInt()];
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		channel.position(HEADER_SIZE);
+		for(int i = 0; i < index.length; ) {
+			buffer.clear().limit(Math.min(buffer.capacity(), 4 * (index.length - i)));
+			while(buffer.hasRemaining())
+				if(channel.read(buffer) < 0) throw new IllegalArgumentException("The sparse image is damaged.");
+			buffer.flip();
+			while(buffer.hasRemaining())
+				index[i++] = buffer.getInt();
+		}
+		dataStart = HEADER_SIZE + 4L * index.length;
+	}
+	
+	/**
+	 * Reads an {@code int} from the header of the open image file.
+	 * 
+	 * @param   position
+	 *          A {@code long} value representing the position in the file.
+	 * @return  An {@code int} value read from the file.
+	 * @throws  IOException
+	 *          If the image file could not be read.
+	 */
+	private int readInt(long position) throws IOException {
+		file.seek(position);
+		return file.readInt();
+	}
+	
+	/**
+	 * Reads a range of bytes of a block that has not been written from the
+	 * image file, or zeros if the block is not stored.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   location
+	 *          An {@code int} value representing the first byte within the block.
+	 * @param   dst
+	 *          A {@code ByteBuffer} that receives the bytes.
+	 */
+	private void readStored(int block, int location, ByteBuffer dst) {
+		int slot = Arrays.binarySearch(index, block);
+		if(slot < 0) {
+			while(dst.hasRemaining()) dst.put((byte)0);
+			return;
+		}
+		
+		long position = dataStart + (long)slot * blockSize + location;
+		try {
+			while(dst.hasRemaining()) {
+				int read = channel.read(dst, position);
+				if(read < 0) throw new IOException("Unexpected end of the sparse image.");
+				position += read;
+			}
+		}
+		catch(IOException e) {throw new UncheckedIOException(e);}
+	}
+	
+	/**
+	 * Returns the in-memory copy of a block for writing, making it from the
+	 * stored content on the first write.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @param   whole
+	 *          A {@code boolean} that is {@code true} if the whole block is about to
+	 *          be overwritten, so its content need not be read.
+	 * @return  A {@code byte[]} holding the block.
+	 */
+	private byte[] image(int block, boolean whole) {
+		byte[] data = written.get(block);
+		if(data == null) {
+			data = new byte[blockSize];
+			if(!whole) readStored(block, 0, ByteBuffer.wrap(data));
+			written.put(block, data);
+		}
+		return data;
+	}
+	
+	/**
+	 * Returns {@code true} if the block belongs in the image; otherwise
+	 * {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the block is in use; otherwise
+	 *          {@code false}.
+	 */
+	private boolean isAllocated(int block) {
+		return allocated == null || allocated.test(block);
+	}
+	
+	/**
+	 * Returns {@code true} if the block is all zeros; otherwise {@code false}.
+	 * 
+	 * @param   data
+	 *          A {@code byte[]} holding the block.
+	 * @return  Returns {@code true} if every byte is zero; otherwise
+	 *          {@code false}.
+	 */
+	private boolean isZero(byte[] data) {
+		for(byte value : data)
+			if(value != 0) return false;
+		return true;
+	}
+}
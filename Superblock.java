@@ -0,0 +1,216 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Superblock.java
+ * The description of a disk's layout, stored at the start of block 0.
+ * <p>
+ * Block 0 holds the superblock, the free space bitmap follows it with one
+ * bit per block, then the chain table of a chained disk that keeps its
+ * links apart from the data, the metadata journal, if the disk has one,
+ * and the root of the directory. The data blocks start after the root.
+ * 
+ */
+public class Superblock {
+	protected final static int MAGIC = 0x5644534B;
+	protected final static int VERSION = 4;
+	protected final static int SIZE = 48;
+	private int blockSize;
+	private int numBlocks;
+	private AllocationType type;
+	private int pointerSize;
+	private int bitmapStart;
+	private int bitmapBlocks;
+	private int tableStart;
+	private int tableBlocks;
+	private int journalStart;
+	private int journalBlocks;
+	private int rootBlock;
+	private int firstDataBlock;
+	
+	
+	/**
+	 * Constructs the {@code Superblock} for a new disk with the given
+	 * geometry and lays out the metadata blocks.
+	 * 
+	 * @param   numBlocks
+	 *          An {@code int} for the number of blocks on the disk.
+	 * @param   blockSize
+	 *          An {@code int} for the number of bytes in each block.
+	 * @param   type
+	 *          The disk {@code AllocationType}.
+	 * @param   pointerSize
+	 *          An {@code int} for the number of bytes in a block pointer.
+	 * @param   journalBlocks
+	 *          An {@code int} for the number of blocks in the journal, or 0 for
+	 *          no journal.
+	 * @param   chainTable
+	 *          A {@code boolean} that is {@code true} to keep the chain links of
+	 *          a chained disk in a table instead of in the data blocks.
+	 */
+	public Superblock(int numBlocks, int blockSize, AllocationType type, int pointerSize, int journalBlocks, boolean chainTable) {
+		this.numBlocks = numBlocks;
+		this.blockSize = blockSize;
+		this.type = type;
+		this.pointerSize = pointerSize;
+		this.bitmapStart = 1;
+		this.bitmapBlocks = (int)((numBlocks + 8L * blockSize - 1) / (8L * blockSize));
+		this.tableStart = bitmapStart + bitmapBlocks;
+		this.tableBlocks = (chainTable ? (int)(((long)numBlocks * pointerSize + blockSize - 1) / blockSize) : 0);
+		this.journalStart = tableStart + tableBlocks;
+		this.journalBlocks = journalBlocks;
+		this.rootBlock = journalStart + journalBlocks;
+		this.firstDataBlock = rootBlock + 1;
+	}
+	
+	/**
+	 * Constructs a {@code Superblock} from its stored form.
+	 * 
+	 * @param   data
+	 *          A {@code ByteBuffer} positioned at the start of the superblock.
+	 * @throws  IllegalArgumentException
+	 *          If the data does not hold a superblock of a known version.
+	 */
+	public Superblock(ByteBuffer data) {
+		if(data.getInt() != MAGIC) throw new IllegalArgumentException("The disk has no superblock.");
+		if(data.getShort() != VERSION) throw new IllegalArgumentException("The disk layout version is not supported.");
+		
+		this.blockSize = data.getInt();
+		this.numBlocks = data.getInt();
+		this.type = AllocationType.values()[data.get()];
+		this.pointerSize = data.get();
+		this.bitmapStart = data.getInt();
+		this.bitmapBlocks = data.getInt();
+		this.tableStart = data.getInt();
+		this.tableBlocks = data.getInt();
+		this.journalStart = data.getInt();
+		this.journalBlocks = data.getInt();
+		this.rootBlock = data.getInt();
+		this.firstDataBlock = data.getInt();
+	}
+	
+	/**
+	 * Reads the superblock at the start of the given image file.
+	 * 
+	 * @param   image
+	 *          The {@code File} holding the disk image.
+	 * @return  The {@code Superblock} stored in the image.
+	 * @throws  IOException
+	 *          If the image file could not be read.
+	 * @throws  IllegalArgumentException
+	 *          If the image does not start with a superblock.
+	 */
+	public static Superblock read(File image) throws IOException {
+		try(RandomAccessFile file = new RandomAccessFile(image, "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer data = ByteBuffer.allocate(SIZE);
+			while(data.hasRemaining())
+				if(channel.read(data, data.position()) < 0) throw new IllegalArgumentException("The disk image is too short to hold a superblock.");
+			data.flip();
+			return new Superblock(data);
+		}
+	}
+	
+	// Getter functions.
+	public int getBlockSize()				{return blockSize;}
+	public int getNumBlocks()				{return numBlocks;}
+	public AllocationType getType()			{return type;}
+	public int getPointerSize()				{return pointerSize;}
+	public int getBitmapStart()				{return bitmapStart;}
+	public int getBitmapBlocks()			{return bitmapBlocks;}
+	public int getTableStart()				{return tableStart;}
+	public int getTableBlocks()				{return tableBlocks;}
+	public int getJournalStart()			{return journalStart;}
+	public int getJournalBlocks()			{return journalBlocks;}
+	public int getRootBlock()				{return rootBlock;}
+	public int getFirstDataBlock()			{return firstDataBlock;}
+	
+	/**
+	 * Returns {@code true} if the given block is part of the chain table;
+	 * otherwise {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the block is in the chain table;
+	 *          otherwise {@code false}.
+	 */
+	public boolean isTableBlock(int block) {
+		return block >= tableStart && block < tableStart + tableBlocks;
+	}
+	
+	/**
+	 * Returns {@code true} if the given block is part of the journal;
+	 * otherwise {@code false}.
+	 * 
+	 * @param   block
+	 *          An {@code int} value representing the block index on the disk.
+	 * @return  Returns {@code true} if the block is in the journal; otherwise
+	 *          {@code false}.
+	 */
+	public boolean isJournalBlock(int block) {
+		return block >= journalStart && block < journalStart + journalBlocks;
+	}
+	
+	/**
+	 * Returns {@code true} if the given superblock describes the same layout
+	 * as this one, so the blocks of one disk can be written to the other;
+	 * otherwise {@code false}.
+	 * 
+	 * @param   other
+	 *          The {@code Superblock} to compare with.
+	 * @return  Returns {@code true} if the layouts match; otherwise
+	 *          {@code false}.
+	 */
+	public boolean hasLayoutOf(Superblock other) {
+		return blockSize == other.blockSize && numBlocks == other.numBlocks && type == other.type && pointerSize == other.pointerSize
+				&& bitmapStart == other.bitmapStart && bitmapBlocks == other.bitmapBlocks && tableStart == other.tableStart
+				&& tableBlocks == other.tableBlocks && journalStart == other.journalStart
+				&& journalBlocks == other.journalBlocks && rootBlock == other.rootBlock && firstDataBlock == other.firstDataBlock;
+	}
+	
+	/**
+	 * Writes the superblock to the start of block 0 of the given disk.
+	 * 
+	 * @param   disk
+	 *          The {@code BlockDevice} to write to.
+	 */
+	public void write(BlockDevice disk) {
+		ByteBuffer data = ByteBuffer.allocate(SIZE);
+		data.putInt(MAGIC);
+		data.putShort((short)VERSION);
+		data.putInt(blockSize);
+		data.putInt(numBlocks);
+		data.put((byte)type.ordinal());
+		data.put((byte)pointerSize);
+		data.putInt(bitmapStart);
+		data.putInt(bitmapBlocks);
+		data.putInt(tableStart);
+		data.putInt(tableBlocks);
+		data.putInt(journalStart);
+		data.putInt(journalBlocks);
+		data.putInt(rootBlock);
+		data.putInt(firstDataBlock);
+		data.flip();
+		disk.write(0, 0, data);
+	}
+	
+	/**
+	 * The Superblock toString function override for the Object class.
+	 * <p>
+	 * Returns a string representation for the Superblock object.
+	 * 
+	 * @return  Returns a {@code String} representation for the
+	 *          {@code Superblock} object.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		String table = (tableBlocks > 0 ? String.format(", chain table in blocks %d-%d", tableStart, tableStart + tableBlocks - 1) : "");
+		String journal = (journalBlocks > 0 ? String.format(", journal in blocks %d-%d", journalStart, journalStart + journalBlocks - 1) : "");
+		return String.format("%s disk, %d blocks of %d bytes, bitmap in blocks %d-%d%s%s, directory root in block %d", type, numBlocks, blockSize, bitmapStart, bitmapStart + bitmapBlocks - 1, table, journal, rootBlock);
+	}
+}